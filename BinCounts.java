@@ -0,0 +1,169 @@
+/*
+*   Class:   BinCounts
+*
+*   USAGE:  Histogram bin counts on a fixed grid of bins of width binWidth aligned on multiples of
+*           binWidth: bin number k covers [k.binWidth, (k+1).binWidth)
+*           An observation's bin depends only on the observation, never on the others, so counts
+*           can be updated one observation at a time as observations arrive or leave, and the
+*           counts of two sets of observations can be combined, without recounting.
+*           The counts array covers the occupied bins, from the lowest to the highest, with room to
+*           grow in both directions; it is laid out again, to twice the occupied span, when an
+*           observation falls outside it, and when removals leave it mostly empty, so a window whose
+*           outliers have left does not keep their bins. The occupied bins may span at most maxBins
+*           bins (default DEFAULT_MAX_BINS): an observation further than that from the others, e.g.
+*           an outlier of 1e9 among marks around 16, is rejected rather than counted.
+*
+*           Used by SlidingGaussianFit and IncrementalFit.
+*
+***************************************************************************************/
+
+import java.util.Arrays;
+
+class BinCounts{
+
+    static final int DEFAULT_MAX_BINS = 1<<20;      // default largest span of occupied bins
+    static final int MAX_BINS_LIMIT = 1<<28;        // largest maxBins, so the counts array stays within int indices
+    private static final int MIN_LENGTH = 64;       // smallest counts array
+    private static final double MAX_BIN_NUMBER = 1.0e15;    // largest magnitude of a bin number, well within a long and exact in a double
+
+    private final double binWidth;                  // histogram bin width
+    private final int maxBins;                      // largest span of occupied bins
+    private long[] counts = new long[MIN_LENGTH];   // bin counts, held for bin numbers binBase to binBase + counts.length - 1
+    private long binBase = 0;                       // bin number of counts[0]
+    private long low = 0;                           // bin number of the lowest occupied bin, if any observations are counted
+    private long high = 0;                          // bin number of the highest occupied bin, if any observations are counted
+    private long total = 0;                         // number of observations counted
+
+    BinCounts(double binWidth){
+        this(binWidth, DEFAULT_MAX_BINS);
+    }
+
+    BinCounts(double binWidth, int maxBins){
+        if(!(binWidth>0.0))throw new IllegalArgumentException("bin width must be positive: " + binWidth);
+        if(maxBins<1 || maxBins>MAX_BINS_LIMIT)throw new IllegalArgumentException("the maximum number of bins must be from 1 to " + MAX_BINS_LIMIT + ": " + maxBins);
+        this.binWidth = binWidth;
+        this.maxBins = maxBins;
+    }
+
+    // Copy of these counts
+    BinCounts copy(){
+        BinCounts copy = new BinCounts(this.binWidth, this.maxBins);
+        copy.counts = this.counts.clone();
+        copy.binBase = this.binBase;
+        copy.low = this.low;
+        copy.high = this.high;
+        copy.total = this.total;
+        return copy;
+    }
+
+    // Bin number of an observation
+    long bin(double x){
+        return (long)Math.floor(x/this.binWidth);
+    }
+
+    // Count an observation, returning its bin number
+    // Throws IllegalArgumentException, counting nothing, if x is not finite, is more than
+    // MAX_BIN_NUMBER bin widths from 0 or would spread the occupied bins over more than maxBins bins
+    long add(double x){
+        if(Double.isNaN(x) || Double.isInfinite(x))throw new IllegalArgumentException("observation is not finite: " + x);
+        if(Math.abs(x/this.binWidth)>=MAX_BIN_NUMBER)throw new IllegalArgumentException("observation " + x + " is too far from 0 for bins of width " + this.binWidth);
+        long bin = this.bin(x);
+        if(this.total==0){
+            this.binBase = bin - this.counts.length/2;
+            this.low = bin;
+            this.high = bin;
+        }
+        else if(bin<this.low || bin>this.high){
+            long low = Math.min(bin, this.low);
+            long high = Math.max(bin, this.high);
+            if((double)high - (double)low + 1.0>this.maxBins){
+                throw new IllegalArgumentException("observation " + x + " would spread the observations over more than " + this.maxBins + " bins of width " + this.binWidth);
+            }
+            if(low<this.binBase || high>=this.binBase + this.counts.length)this.layOut(low, high);
+            this.low = low;
+            this.high = high;
+        }
+        this.counts[(int)(bin - this.binBase)]++;
+        this.total++;
+        return bin;
+    }
+
+    // Lay the counts out again in an array of twice the span of bins low to high, centred on them
+    // The occupied bins, this.low to this.high, lie within low to high
+    private void layOut(long low, long high){
+        int span = (int)(high - low + 1);
+        int length = MIN_LENGTH;
+        while(length<2*span)length *= 2;
+        long base = low - (length - span)/2;
+        long[] counts = new long[length];
+        if(this.total>0){
+            System.arraycopy(this.counts, (int)(this.low - this.binBase), counts, (int)(this.low - base), (int)(this.high - this.low + 1));
+        }
+        this.counts = counts;
+        this.binBase = base;
+    }
+
+    // Uncount an observation previously counted into bin number bin
+    // The ends of the occupied range move in past bins left empty, and the counts array is laid out
+    // again once the occupied bins fill less than an eighth of it
+    void remove(long bin){
+        this.counts[(int)(bin - this.binBase)]--;
+        this.total--;
+        if(this.total==0){
+            if(this.counts.length>MIN_LENGTH)this.counts = new long[MIN_LENGTH];
+            return;
+        }
+        while(this.counts[(int)(this.low - this.binBase)]==0)this.low++;
+        while(this.counts[(int)(this.high - this.binBase)]==0)this.high--;
+        if(this.counts.length>MIN_LENGTH && 8*(this.high - this.low + 1)<=this.counts.length)this.layOut(this.low, this.high);
+    }
+
+    // Number of observations counted
+    long getTotal(){
+        return this.total;
+    }
+
+    double getBinWidth(){
+        return this.binWidth;
+    }
+
+    // Centres of the bins from the lowest to the highest occupied bin
+    double[] marks(){
+        if(this.total==0)return new double[0];
+        int first = this.first();
+        int nBins = this.last() - first + 1;
+        double[] marks = new double[nBins];
+        for(int i=0; i<nBins; i++)marks[i] = (this.binBase + first + i + 0.5)*this.binWidth;
+        return marks;
+    }
+
+    // Counts from the lowest to the highest occupied bin, as the frequencies of a histogram
+    double[] frequencies(){
+        if(this.total==0)return new double[0];
+        int first = this.first();
+        int nBins = this.last() - first + 1;
+        double[] frequency = new double[nBins];
+        for(int i=0; i<nBins; i++)frequency[i] = this.counts[first + i];
+        return frequency;
+    }
+
+    // Counts from the lowest to the highest occupied bin
+    long[] counts(){
+        if(this.total==0)return new long[0];
+        return Arrays.copyOfRange(this.counts, this.first(), this.last() + 1);
+    }
+
+    // Index in counts of the lowest occupied bin
+    private int first(){
+        return (int)(this.low - this.binBase);
+    }
+
+    // Index in counts of the highest occupied bin
+    private int last(){
+        return (int)(this.high - this.binBase);
+    }
+
+    int getMaxBins(){
+        return this.maxBins;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+*   Class:   BinRule
+*
+*   USAGE:  Choice of the number of histogram bins fitted by GaussianFit2
+*           Set per request with "bins" and, for the fixed rules, "binWidth" or "binCount":
+*               "width"    bins of width "binWidth" (default DEFAULT_WIDTH), the default rule
+*               "count"    "binCount" bins
+*               "fd"       Freedman-Diaconis: width 2.IQR/n^(1/3), Scott's width if the IQR is zero
+*               "scott"    Scott: width 3.49.sd/n^(1/3)
+*               "sturges"  Sturges: log2(n) + 1 bins, rounded up
+*           Whatever the rule, the number of bins is at most "maxBins" (default DEFAULT_MAX_BINS),
+*           so a single outlier far from the other marks cannot make the histogram, and every
+*           evaluation of the regression over it, arbitrarily large. The bins then cover the
+*           range of the marks with equal widths.
+*
+***************************************************************************************/
+
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+
+import org.json.JSONObject;
+
+class BinRule{
+
+    static final double DEFAULT_WIDTH = 0.1;        // default bin width of the "width" rule
+    static final int DEFAULT_MAX_BINS = 1000;       // default maximum number of bins
+
+    // Rule of requests that set none: bins of width 0.1, at most DEFAULT_MAX_BINS of them
+    static final BinRule DEFAULT = new BinRule("width", DEFAULT_WIDTH, 0, DEFAULT_MAX_BINS);
+
+    private final String rule;                      // "width", "count", "fd", "scott" or "sturges"
+    private final double width;                     // bin width of the "width" rule
+    private final int count;                        // number of bins of the "count" rule
+    private final int maxBins;                      // maximum number of bins
+
+    BinRule(String rule, double width, int count, int maxBins){
+        if(!Arrays.asList("width", "count", "fd", "scott", "sturges").contains(rule))throw new IllegalArgumentException("unknown bin rule: " + rule);
+        if(rule.equals("width") && !(width>0.0 && width<Double.POSITIVE_INFINITY))throw new IllegalArgumentException("bin width must be positive: " + width);
+        if(rule.equals("count") && count<1)throw new IllegalArgumentException("bin count must be at least 1: " + count);
+        if(maxBins<1)throw new IllegalArgumentException("maximum number of bins must be at least 1: " + maxBins);
+        this.rule = rule;
+        this.width = width;
+        this.count = count;
+        this.maxBins = maxBins;
+    }
+
+    // Rule of a request, DEFAULT if it sets none of "bins", "binWidth", "binCount" and "maxBins"
+    static BinRule fromRequest(JSONObject request){
+        if(!request.has("bins") && !request.has("binWidth") && !request.has("binCount") && !request.has("maxBins"))return DEFAULT;
+        String rule = request.optString("bins", request.has("binCount") ? "count" : "width");
+        return new BinRule(rule, request.optDouble("binWidth", DEFAULT_WIDTH), request.optInt("binCount", 0), request.optInt("maxBins", DEFAULT_MAX_BINS));
+    }
+
+    // Number of bins for n marks, whose range is min to max and standard deviation sd
+    // interquartileRange is only asked for by the "fd" rule
+    int numberOfBins(int n, double min, double max, double sd, DoubleSupplier interquartileRange){
+        double range = max - min;
+        if(!(range>0.0))throw new IllegalArgumentException("the marks have no spread to distribute into histogram bins");
+        double bins = 0.0;
+        if(this.rule.equals("width")){
+            bins = Math.round(range/this.width);
+        }
+        else if(this.rule.equals("count")){
+            bins = this.count;
+        }
+        else if(this.rule.equals("sturges")){
+            bins = Math.ceil(Math.log(n)/Math.log(2.0)) + 1.0;
+        }
+        else{
+            double width = 0.0;
+            if(this.rule.equals("fd"))width = 2.0*interquartileRange.getAsDouble()/Math.cbrt(n);
+            if(!(width>0.0))width = 3.49*sd/Math.cbrt(n);
+            bins = Math.round(range/width);
+        }
+        // NaN, from a zero width, counts as the maximum
+        if(!(bins<=this.maxBins))return this.maxBins;
+        return Math.max(1, (int)bins);
+    }
+
+    String getRule(){
+        return this.rule;
+    }
+
+    // Bin width of the "width" rule
+    double getWidth(){
+        return this.width;
+    }
+
+    int getMaxBins(){
+        return this.maxBins;
+    }
+}
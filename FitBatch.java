@@ -0,0 +1,162 @@
+/*
+*   Class:   FitBatch
+*
+*   USAGE:  Streaming JSON-lines batch mode for GaussianFit2
+*           Fits many datasets in one JVM instead of launching one JVM per dataset.
+*
+*           java -cp .:flanagan.jar:json-20160212.jar GaussianFit2 --batch [file] [--threads n] [--unordered]
+*
+*           Each input line is a record {"id":..,"observations":[...]}, read from the file,
+*           or from stdin if no file is given. One {"id":..,"mean":..,"sigma":..} line is
+*           written to stdout per record as soon as it may be written:
+*               ordered (default)   replies appear in the input order
+*               --unordered         replies appear in the order in which the fits finish
+*           A record that cannot be fitted gives a {"id":..,"error":..} line.
+*
+*           Records are fitted on a pool of n worker threads (default: number of processors).
+*           At most 4n records are read ahead of the output, so memory use does not grow
+*           with the length of the input.
+*
+***************************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+public class FitBatch{
+
+    private final Writer out;                           // reply destination
+    private final boolean ordered;                      // = true if replies are written in input order
+    private final Semaphore inFlight;                   // bounds the number of records read ahead of the output
+    private final HashMap<Long, String> pending = new HashMap<Long, String>();   // finished replies waiting for their turn
+    private long nextToWrite = 0;                       // sequence number of the next reply to write (ordered mode)
+    private IOException writeError = null;              // first failure writing the replies
+
+    FitBatch(Writer out, int threads, boolean ordered){
+        this.out = out;
+        this.ordered = ordered;
+        this.inFlight = new Semaphore(4*threads);
+    }
+
+    // Fit every record read from in on a pool of the given number of threads
+    static void run(Reader in, Writer out, int threads, boolean ordered) throws IOException, InterruptedException{
+        FitBatch batch = new FitBatch(out, threads, ordered);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try{
+            BufferedReader lines = new BufferedReader(in);
+            String line = null;
+            long sequence = 0;
+            while((line = lines.readLine())!=null){
+                if(line.trim().length()==0)continue;
+                batch.inFlight.acquire();
+                final String record = line;
+                final long seq = sequence++;
+                pool.execute(() -> batch.write(seq, FitBatch.fitRecord(record)));
+            }
+        }
+        finally{
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        synchronized(batch){
+            if(batch.writeError!=null)throw batch.writeError;
+        }
+        out.flush();
+    }
+
+    // Fit one record, turning a failure into an error reply
+    // An Error, e.g. an OutOfMemoryError from one oversized record, also gives an error reply: the
+    // reply must still be written, and its permit released, or an ordered batch would wait for it forever
+    private static String fitRecord(String record){
+        JSONObject options = new JSONObject();
+        try{
+            double[] observations = GaussianFit2.observations(record, options);
+            return GaussianFit2.fit(observations, options, true);
+        }
+        catch(RuntimeException e){
+            return FitResult.failed(options.opt("id"), String.valueOf(e.getMessage())).toString();
+        }
+        catch(Error e){
+            return FitResult.failed(options.opt("id"), e.toString()).toString();
+        }
+    }
+
+    // Write a finished reply, or hold it back until the replies before it have been written
+    private synchronized void write(long seq, String reply){
+        try{
+            if(!this.ordered){
+                this.writeLine(reply);
+            }
+            else{
+                this.pending.put(seq, reply);
+                while((reply = this.pending.remove(this.nextToWrite))!=null){
+                    this.writeLine(reply);
+                    this.nextToWrite++;
+                }
+            }
+            this.out.flush();
+        }
+        catch(IOException e){
+            if(this.writeError==null)this.writeError = e;
+        }
+    }
+
+    // Write one reply line and let the reader fetch another record
+    private void writeLine(String reply) throws IOException{
+        if(this.writeError==null){
+            this.out.write(reply);
+            this.out.write('\n');
+        }
+        this.inFlight.release();
+    }
+
+    // Command line entry: [file] [--threads n] [--unordered]
+    public static void main(String[] arg) throws IOException, InterruptedException{
+        String fileName = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean ordered = true;
+        for(int i=0; i<arg.length; i++){
+            if(arg[i].equals("--threads")){
+                threads = Integer.parseInt(arg[++i]);
+            }
+            else if(arg[i].equals("--unordered")){
+                ordered = false;
+            }
+            else if(arg[i].equals("--ordered")){
+                ordered = true;
+            }
+            else{
+                fileName = arg[i];
+            }
+        }
+        if(threads<1)throw new IllegalArgumentException("the number of threads must be at least 1: " + threads);
+
+        Reader in = null;
+        if(fileName==null){
+            in = new InputStreamReader(System.in, StandardCharsets.UTF_8);
+        }
+        else{
+            in = new FileReader(fileName, StandardCharsets.UTF_8);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try{
+            FitBatch.run(in, out, threads, ordered);
+        }
+        finally{
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+*   Class:   FitCache
+*
+*   USAGE:  Bounded in-memory cache of fit results, keyed by the 128-bit ObservationHash of the
+*           observations array and the fit options of the request
+*           GaussianFit2.fitResult consults the shared cache before statistics, histogram and the
+*           regression, so a repeated dataset returns its mean and sigma without being fitted again.
+*           This pays off in one long-lived JVM: the --server and --batch modes and FitPool.
+*
+*           The least recently used entry is evicted once the cache holds maxSize entries.
+*           The size of the shared cache is set with -Dgauss.cache.size=n (default DEFAULT_SIZE, 0 to disable).
+*           A request is fitted without the cache if it asks for "cache": false or for a "plot".
+*
+***************************************************************************************/
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+class FitCache{
+
+    static final int DEFAULT_SIZE = 1024;           // default maximum number of entries of the shared cache
+
+    // Shared cache used by GaussianFit2
+    static final FitCache SHARED = new FitCache(Integer.getInteger("gauss.cache.size", DEFAULT_SIZE));
+
+    // Request keys that do not change the fit and so are left out of the cache key
+    private static final String[] NOT_FIT_OPTIONS = {"id", "title", "file", "plot", "cache", "observations", "append"};
+
+    private final int maxSize;                      // maximum number of entries
+    private final LinkedHashMap<ObservationHash.Digest, FitResult> entries;    // entries, least recently used first
+    private long hits = 0;                          // number of lookups that found an entry
+    private long misses = 0;                        // number of lookups that did not
+    private long evictions = 0;                     // number of entries evicted to make room
+
+    FitCache(int maxSize){
+        if(maxSize<0)throw new IllegalArgumentException("cache size must not be negative: " + maxSize);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<ObservationHash.Digest, FitResult>(16, 0.75f, true){
+            protected boolean removeEldestEntry(Map.Entry<ObservationHash.Digest, FitResult> eldest){
+                if(size()<=FitCache.this.maxSize)return false;
+                FitCache.this.evictions++;
+                return true;
+            }
+        };
+    }
+
+    // = true if the cache may hold entries
+    boolean isEnabled(){
+        return this.maxSize>0;
+    }
+
+    // = true if the request may be answered from, and stored in, the cache
+    static boolean cacheable(JSONObject request){
+        return request.optBoolean("cache", true) && !request.optBoolean("plot", false);
+    }
+
+    // Cache key of an observations array and the fit options of its request
+    static ObservationHash.Digest key(double[] observations, JSONObject request){
+        ObservationHash hash = new ObservationHash();
+        hash.update(observations, 0, observations.length);
+        return hash.digest(FitCache.fitOptions(request));
+    }
+
+    // The options of a request that can change the fit, as key=value pairs in key order
+    static String fitOptions(JSONObject request){
+        String[] names = JSONObject.getNames(request);
+        if(names==null)return "";
+        Arrays.sort(names);
+        StringBuilder options = new StringBuilder();
+        for(int i=0; i<names.length; i++){
+            if(Arrays.asList(NOT_FIT_OPTIONS).contains(names[i]))continue;
+            options.append(names[i]).append('=').append(JSONObject.valueToString(request.opt(names[i]))).append(';');
+        }
+        return options.toString();
+    }
+
+    // Cached result for key, null on a miss
+    synchronized FitResult get(ObservationHash.Digest key){
+        FitResult result = this.entries.get(key);
+        if(result==null){
+            this.misses++;
+        }
+        else{
+            this.hits++;
+        }
+        return result;
+    }
+
+    // Store the result for key, evicting the least recently used entry if the cache is full
+    synchronized void put(ObservationHash.Digest key, FitResult result){
+        if(this.maxSize==0 || result.isFailed())return;
+        this.entries.put(key, result);
+    }
+
+    // Remove every entry; the counters are kept
+    synchronized void clear(){
+        this.entries.clear();
+    }
+
+    synchronized int size(){
+        return this.entries.size();
+    }
+
+    int getMaxSize(){
+        return this.maxSize;
+    }
+
+    synchronized long getHits(){
+        return this.hits;
+    }
+
+    synchronized long getMisses(){
+        return this.misses;
+    }
+
+    synchronized long getEvictions(){
+        return this.evictions;
+    }
+
+    // Counters as JSON: {"size": ..,"maxSize": ..,"hits": ..,"misses": ..,"evictions": ..}
+    synchronized String stats(){
+        return "{\"size\": " + this.entries.size() + ",\"maxSize\": " + this.maxSize + ",\"hits\": " + this.hits
+               + ",\"misses\": " + this.misses + ",\"evictions\": " + this.evictions + "}";
+    }
+}
@@ -0,0 +1,132 @@
+/*
+*   Class:   FitPool
+*
+*   USAGE:  Library entry point for fitting many independent datasets in one JVM
+*           Each dataset is fitted as its own task, on a new virtual thread per task (FitPool())
+*           or on a pool of platform threads (FitPool(threads)), with its own GaussianFit2.
+*
+*           FitPool pool = new FitPool();
+*           List<FitResult> results = pool.fitAll(datasets, new JSONObject("{'method':'lm'}"), 2, TimeUnit.SECONDS);
+*           pool.close();
+*
+*           A timeout limits the running time of each task, counted from when the task starts, not
+*           from when it is submitted. A task that times out, or whose Future is cancelled, is interrupted
+*           and stops at the next evaluation of the fitted function; fitAll reports it as a failed FitResult.
+*           The statistics and histogram stages are not interruptible, but their cost is linear in
+*           the number of observations.
+*
+***************************************************************************************/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+class FitPool implements AutoCloseable{
+
+    private final ExecutorService executor;        // runs the fits
+    private final ScheduledThreadPoolExecutor timer;   // interrupts tasks that run out of time
+
+    // One virtual thread per fit
+    FitPool(){
+        this(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    // A fixed pool of the given number of platform threads
+    FitPool(int threads){
+        this(Executors.newFixedThreadPool(threads));
+    }
+
+    private FitPool(ExecutorService executor){
+        this.executor = executor;
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "FitPool timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    // Submit one fit; options are those of a request, e.g. "method", with the observations given separately
+    // timeout is the maximum running time of the fit, 0 for no limit
+    // The Future fails with the exception that stopped the fit, or is cancelled if the fit timed out
+    Future<FitResult> submit(double[] observations, JSONObject options, long timeout, TimeUnit unit){
+        FitTask task = new FitTask(observations, options, unit.toNanos(timeout));
+        this.executor.execute(task);
+        return task;
+    }
+
+    // Fit every dataset, returning the results in the order of the datasets
+    // Each dataset is given its index in the list as its id; a fit that fails or times out gives a failed FitResult
+    List<FitResult> fitAll(List<double[]> datasets, JSONObject options, long timeout, TimeUnit unit) throws InterruptedException{
+        List<Future<FitResult>> futures = new ArrayList<Future<FitResult>>(datasets.size());
+        try{
+            String[] names = JSONObject.getNames(options);
+            for(int i=0; i<datasets.size(); i++){
+                JSONObject request = names==null ? new JSONObject() : new JSONObject(options, names);
+                request.put("id", i);
+                futures.add(this.submit(datasets.get(i), request, timeout, unit));
+            }
+            List<FitResult> results = new ArrayList<FitResult>(datasets.size());
+            for(int i=0; i<futures.size(); i++){
+                Future<FitResult> future = futures.get(i);
+                try{
+                    results.add(future.get());
+                }
+                catch(CancellationException e){
+                    results.add(FitResult.failed(i, ((FitTask)future).timedOut ? "fit timed out" : "fit cancelled"));
+                }
+                catch(ExecutionException e){
+                    results.add(FitResult.failed(i, String.valueOf(e.getCause().getMessage())));
+                }
+            }
+            return results;
+        }
+        finally{
+            // Interrupted while waiting: cancel whatever is still queued or running
+            for(int i=0; i<futures.size(); i++)futures.get(i).cancel(true);
+        }
+    }
+
+    // Stop accepting fits and cancel those queued or running
+    public void close(){
+        this.executor.shutdownNow();
+        this.timer.shutdownNow();
+    }
+
+    // A fit that interrupts itself, through cancel(true), if it runs for longer than its timeout
+    private final class FitTask extends FutureTask<FitResult>{
+        private final long timeout;                 // maximum running time in nanoseconds, 0 for no limit
+        private volatile boolean timedOut = false;  // = true if the task was cancelled by its timeout
+
+        FitTask(double[] observations, JSONObject options, long timeout){
+            super(() -> GaussianFit2.fitResult(observations, options, true));
+            this.timeout = timeout;
+        }
+
+        public void run(){
+            ScheduledFuture<?> alarm = null;
+            if(this.timeout>0){
+                alarm = FitPool.this.timer.schedule(() -> {
+                    this.timedOut = true;
+                    this.cancel(true);
+                }, this.timeout, TimeUnit.NANOSECONDS);
+            }
+            try{
+                super.run();
+            }
+            finally{
+                if(alarm!=null)alarm.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+*   Class:   FitResult
+*
+*   USAGE:  Immutable result of one Gaussian fit: the best estimates of the mean and standard deviation,
+*           their standard errors and the iteration and evaluation counts where the fitting method
+*           records them, or the error that stopped the fit. A regression that stopped at its
+*           iteration limit without converging is marked as such.
+*           A Gaussian mixture (GaussianMixture) also has the weight, mean and standard deviation of
+*           each of its components and its BIC, mean and sigma being those of the whole mixture.
+*           A fit with "analysis": "full" also has the order statistics and probability plot of the
+*           marks, as a JSON object, and a fit with "plot": true the plot data of its histogram and fit.
+*
+*           GaussianFit2 keeps its working state (examMarks, reg, meanFit, ...) in instance fields,
+*           so a GaussianFit2 belongs to the one thread running its fit. A FitResult is copied out
+*           of it at the end of the fit and may be shared freely between threads.
+*
+*           toString() gives the JSON reply line of GaussianFit2.fit(...).
+*
+***************************************************************************************/
+
+import org.json.JSONObject;
+
+final class FitResult{
+
+    private final Object id;                        // request id, null if none was supplied
+    private final double mean;                      // best estimate mean (mu)
+    private final double sigma;                     // best estimate standard deviation (sigma)
+    private final double meanError;                 // standard error of the mean, NaN if not calculated
+    private final double sigmaError;                // standard error of sigma, NaN if not calculated
+    private final int iterations;                   // number of iterations, -1 if not recorded
+    private final int evaluations;                  // number of function evaluations, -1 if not recorded
+    private final String error;                     // reason the fit failed, null if it succeeded
+    private final double[][] components;            // weight, mean and sigma of each mixture component, null if not a mixture
+    private final double bic;                       // Bayesian information criterion of a mixture, NaN if not a mixture
+    private final String analysis;                  // JSON object of the full analysis statistics, null if not requested
+    private final double[][] plot;                  // plot data of the histogram and fit (see GaussianFit2.plotData()), null if not requested
+    private final boolean converged;                // = false if the regression stopped at its iteration limit without converging
+
+    FitResult(Object id, double mean, double sigma, double meanError, double sigmaError, int iterations, int evaluations){
+        this(id, mean, sigma, meanError, sigmaError, iterations, evaluations, null, null, Double.NaN, null, null, true);
+    }
+
+    private FitResult(Object id, double mean, double sigma, double meanError, double sigmaError, int iterations, int evaluations, String error, double[][] components, double bic, String analysis, double[][] plot, boolean converged){
+        this.id = id;
+        this.mean = mean;
+        this.sigma = sigma;
+        this.meanError = meanError;
+        this.sigmaError = sigmaError;
+        this.iterations = iterations;
+        this.evaluations = evaluations;
+        this.error = error;
+        this.components = components;
+        this.bic = bic;
+        this.analysis = analysis;
+        this.plot = plot;
+        this.converged = converged;
+    }
+
+    // Result of a mixture fit; components[j] holds the weight, mean and sigma of component j
+    static FitResult mixture(Object id, double mean, double sigma, double[][] components, double bic, int iterations, int evaluations){
+        double[][] copy = new double[components.length][];
+        for(int j=0; j<components.length; j++)copy[j] = components[j].clone();
+        return new FitResult(id, mean, sigma, Double.NaN, Double.NaN, iterations, evaluations, null, copy, bic, null, null, true);
+    }
+
+    // Result of a fit that failed
+    static FitResult failed(Object id, String error){
+        return new FitResult(id, Double.NaN, Double.NaN, Double.NaN, Double.NaN, -1, -1, error, null, Double.NaN, null, null, true);
+    }
+
+    // The same result for another request id, e.g. a cached result returned to a new request
+    FitResult withId(Object id){
+        return new FitResult(id, this.mean, this.sigma, this.meanError, this.sigmaError, this.iterations, this.evaluations, this.error, this.components, this.bic, this.analysis, this.plot, this.converged);
+    }
+
+    // The same result with the statistics of a full analysis, a JSON object
+    FitResult withAnalysis(String analysis){
+        return new FitResult(this.id, this.mean, this.sigma, this.meanError, this.sigmaError, this.iterations, this.evaluations, this.error, this.components, this.bic, analysis, this.plot, this.converged);
+    }
+
+    // The same result with the plot data of its histogram and fit, rows as GaussianFit2.plotData()
+    FitResult withPlot(double[][] plot){
+        return new FitResult(this.id, this.mean, this.sigma, this.meanError, this.sigmaError, this.iterations, this.evaluations, this.error, this.components, this.bic, this.analysis, plot, this.converged);
+    }
+
+    // The same result marked as stopped at the iteration limit without converging
+    FitResult unconverged(){
+        return new FitResult(this.id, this.mean, this.sigma, this.meanError, this.sigmaError, this.iterations, this.evaluations, this.error, this.components, this.bic, this.analysis, this.plot, false);
+    }
+
+    // The same result without its iteration and evaluation counts, for a reply that did not ask for them
+    FitResult withoutCounts(){
+        return new FitResult(this.id, this.mean, this.sigma, this.meanError, this.sigmaError, -1, -1, this.error, this.components, this.bic, this.analysis, this.plot, this.converged);
+    }
+
+    Object getId(){
+        return this.id;
+    }
+
+    double getMean(){
+        return this.mean;
+    }
+
+    double getSigma(){
+        return this.sigma;
+    }
+
+    double getMeanError(){
+        return this.meanError;
+    }
+
+    double getSigmaError(){
+        return this.sigmaError;
+    }
+
+    int getIterations(){
+        return this.iterations;
+    }
+
+    int getEvaluations(){
+        return this.evaluations;
+    }
+
+    String getError(){
+        return this.error;
+    }
+
+    // Number of mixture components, 0 if not a mixture
+    int getComponentCount(){
+        return this.components==null ? 0 : this.components.length;
+    }
+
+    // Weight, mean and sigma of mixture component j, null if not a mixture
+    double[] getComponent(int j){
+        return this.components==null ? null : this.components[j].clone();
+    }
+
+    // = true if this is the result of a mixture fit
+    boolean isMixture(){
+        return this.components!=null;
+    }
+
+    double getBic(){
+        return this.bic;
+    }
+
+    // JSON object of the full analysis statistics, null if not requested
+    String getAnalysis(){
+        return this.analysis;
+    }
+
+    // Plot data of the histogram and fit, null if not requested
+    double[][] getPlot(){
+        return this.plot;
+    }
+
+    // = false if the regression stopped at its iteration limit without converging
+    boolean isConverged(){
+        return this.converged;
+    }
+
+    // = true if the fit failed
+    boolean isFailed(){
+        return this.error!=null;
+    }
+
+    // Reply line: {"id": ..,"mean": ..,"sigma": ..}, the id only being present if one was supplied
+    // and followed by "meanError" and "sigmaError", and "iterations" and "evaluations", if the fitting method recorded them,
+    // and by "converged": false if the regression stopped at its iteration limit without converging
+    // A mixture ends with "bic" and "components": [{"weight": ..,"mean": ..,"sigma": ..}, ...]
+    // A full analysis ends with "analysis": {...}, and a plot with "plot": {"bins": [..],"frequency": [..],"curveX": [..],"curveY": [..]},
+    // the bin centres and frequencies and 200 points on the fitted curve
+    // A failed fit gives {"id": ..,"error": ..}
+    public String toString(){
+        String reply = "{";
+        if(this.id!=null)reply += "\"id\": " + JSONObject.valueToString(this.id) + ",";
+        if(this.error!=null){
+            reply += "\"error\": " + JSONObject.quote(this.error) + "}";
+            return reply;
+        }
+        reply += "\"mean\": " + this.mean + ",\"sigma\": " + this.sigma;
+        if(!Double.isNaN(this.meanError)){
+            reply += ",\"meanError\": " + this.meanError + ",\"sigmaError\": " + this.sigmaError;
+        }
+        if(this.iterations>=0){
+            reply += ",\"iterations\": " + this.iterations + ",\"evaluations\": " + this.evaluations;
+        }
+        if(!this.converged)reply += ",\"converged\": false";
+        if(this.components!=null){
+            reply += ",\"bic\": " + this.bic + ",\"components\": [";
+            for(int j=0; j<this.components.length; j++){
+                if(j>0)reply += ",";
+                reply += "{\"weight\": " + this.components[j][0] + ",\"mean\": " + this.components[j][1] + ",\"sigma\": " + this.components[j][2] + "}";
+            }
+            reply += "]";
+        }
+        if(this.analysis!=null)reply += ",\"analysis\": " + this.analysis;
+        if(this.plot!=null){
+            reply += ",\"plot\": {\"bins\": " + FitResult.array(this.plot[0]) + ",\"frequency\": " + FitResult.array(this.plot[1])
+                     + ",\"curveX\": " + FitResult.array(this.plot[2]) + ",\"curveY\": " + FitResult.array(this.plot[3]) + "}";
+        }
+        reply += "}";
+        return reply;
+    }
+
+    // JSON array of the values
+    private static String array(double[] values){
+        StringBuilder array = new StringBuilder("[");
+        for(int i=0; i<values.length; i++){
+            if(i>0)array.append(',');
+            array.append(values[i]);
+        }
+        return array.append(']').toString();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+*   Class:   FitServer
+*
+*   USAGE:  Resident HTTP front end for GaussianFit2
+*           Keeps one warm JVM so that each fit no longer pays for JVM start up,
+*           loading the flanagan classes and a cold JIT.
+*
+*           java -cp .:flanagan.jar:json-20160212.jar GaussianFit2 --server [port]
+*
+*           POST {'observations':[...]} to http://localhost:port/fit
+*           The reply body is the same {"mean": ..,"sigma": ..} printed by the command line version.
+*           The observations must be sent in the request: a "file" key is refused, so that clients
+*           cannot have paths on this host opened.
+*           Each request is handled on its own virtual thread (requires Java 21).
+*
+*           GET http://localhost:port/cache returns the size and hit/miss counters of the fit result cache.
+*
+***************************************************************************************/
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import org.json.JSONObject;
+
+public class FitServer{
+
+    static final int DEFAULT_PORT = 8642;           // default listening port
+
+    // Start the server on the loopback interface and return once it is accepting requests
+    static HttpServer start(int port) throws IOException{
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/fit", FitServer::handle);
+        server.createContext("/cache", FitServer::cacheStats);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        System.out.println("GaussianFit2 server listening on http://localhost:" + server.getAddress().getPort() + "/fit");
+        return server;
+    }
+
+    // Handle one fit request
+    private static void handle(HttpExchange exchange) throws IOException{
+        int status = 200;
+        String reply = null;
+        if(!exchange.getRequestMethod().equals("POST")){
+            status = 405;
+            reply = FitServer.error("use POST with a body of the form {'observations':[...]}");
+        }
+        else{
+            try(InputStream in = exchange.getRequestBody()){
+                reply = GaussianFit2.fit(new String(in.readAllBytes(), StandardCharsets.UTF_8), false, false);
+            }
+            catch(RuntimeException e){
+                status = 400;
+                reply = FitServer.error(String.valueOf(e.getMessage()));
+            }
+            catch(Error e){
+                // e.g. an OutOfMemoryError from one oversized request: the client must still get a reply
+                status = 500;
+                reply = FitServer.error(e.toString());
+            }
+        }
+
+        byte[] body = reply.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try(OutputStream out = exchange.getResponseBody()){
+            out.write(body);
+        }
+    }
+
+    // Report the counters of the fit result cache
+    private static void cacheStats(HttpExchange exchange) throws IOException{
+        byte[] body = FitCache.SHARED.stats().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try(OutputStream out = exchange.getResponseBody()){
+            out.write(body);
+        }
+    }
+
+    // Error reply body
+    private static String error(String message){
+        return "{\"error\": " + JSONObject.quote(message) + "}";
+    }
+}
@@ -0,0 +1,263 @@
+/*
+*   Class:   FitStore
+*
+*   USAGE:  Persistent fit result store on local disk, shared by every JVM that fits on this machine
+*           GaussianFit2 consults the store after the in-memory FitCache and before fitting, and
+*           appends each new result to it, so a dataset fitted by one process is not fitted again
+*           by the next, even when each fit is a new JVM.
+*
+*           java -Dgauss.store=/var/tmp/gauss.store -Dgauss.store.maxSize=67108864 GaussianFit2 "{...}"
+*
+*           The store is off unless gauss.store names its file. The file is created on first use
+*           with room for as many results as gauss.store.maxSize bytes allow (default DEFAULT_MAX_SIZE)
+*           and is memory-mapped whole. Its layout, little-endian:
+*               header      HEADER_SIZE bytes: magic "GFST", version, index slots, maximum records,
+*                           record count, number of compactions
+*               index       open addressing hash table of slots, each the record number + 1 (0 if empty),
+*                           keyed on the low bits of the ObservationHash digest
+*               records     RECORD_SIZE bytes each, in the order appended: digest (2 longs), mean, sigma,
+*                           meanError, sigmaError, iterations, evaluations
+*           Records are only ever appended. When the record area is full the store is compacted:
+*           the older half of the records is dropped, the newer half moved down and the index rebuilt.
+*
+*           Lookups hold a shared lock, and appends and compaction an exclusive lock, on the file
+*           (FileChannel.lock), so several processes may use the same store at the same time.
+*
+***************************************************************************************/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+class FitStore{
+
+    static final long DEFAULT_MAX_SIZE = 64L<<20;   // default maximum file size in bytes
+
+    private static final int MAGIC = 0x54534647;    // "GFST" in little-endian byte order
+    private static final int VERSION = 1;           // file format version
+    private static final int HEADER_SIZE = 64;      // bytes of header
+    private static final int SLOT_SIZE = 8;         // bytes per index slot
+    private static final int RECORD_SIZE = 64;      // bytes per record
+    private static final int MIN_SLOTS = 16;        // smallest index
+
+    // Header field offsets
+    private static final int SLOTS_AT = 8;
+    private static final int MAX_RECORDS_AT = 12;
+    private static final int COUNT_AT = 16;
+    private static final int COMPACTIONS_AT = 24;
+
+    // Shared store used by GaussianFit2, null unless -Dgauss.store is set
+    static final FitStore SHARED = FitStore.openShared();
+
+    private final String fileName;                  // store file
+    private final FileChannel channel;              // open store file
+    private final MappedByteBuffer map;             // the whole file
+    private final int slots;                        // number of index slots, a power of two
+    private final int maxRecords;                   // number of records the file holds, half the slots
+    private final int recordStart;                  // offset of the first record
+
+    private long hits = 0;                          // number of lookups by this process that found a result
+    private long misses = 0;                        // number of lookups by this process that did not
+
+    // Open the store file, creating it with room for maxSize bytes if it does not exist
+    // An existing store keeps the size it was created with
+    FitStore(String fileName, long maxSize) throws IOException{
+        this.fileName = fileName;
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int slots = 0;
+        int maxRecords = 0;
+        FileLock lock = this.channel.lock();
+        try{
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if(this.channel.size()==0){
+                // New store: the largest index, and half as many records, that fit in maxSize bytes
+                if(maxSize>Integer.MAX_VALUE)throw new IOException("fit store maximum size must be under 2 GiB: " + maxSize);
+                slots = Integer.highestOneBit((int)Math.max(MIN_SLOTS, (maxSize - HEADER_SIZE)/(SLOT_SIZE + RECORD_SIZE/2)));
+                maxRecords = slots/2;
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(SLOTS_AT, slots);
+                header.putInt(MAX_RECORDS_AT, maxRecords);
+                this.channel.write(header, 0);
+                this.channel.write(ByteBuffer.allocate(1), FitStore.fileSize(slots, maxRecords) - 1);
+            }
+            else{
+                this.channel.read(header, 0);
+                if(header.getInt(0)!=MAGIC)throw new IOException(fileName + " is not a fit store");
+                if(header.getInt(4)!=VERSION)throw new IOException(fileName + " is fit store version " + header.getInt(4) + ", not " + VERSION);
+                slots = header.getInt(SLOTS_AT);
+                maxRecords = header.getInt(MAX_RECORDS_AT);
+                if(this.channel.size()<FitStore.fileSize(slots, maxRecords))throw new IOException(fileName + " is truncated");
+            }
+        }
+        finally{
+            lock.release();
+        }
+        this.slots = slots;
+        this.maxRecords = maxRecords;
+        this.recordStart = HEADER_SIZE + slots*SLOT_SIZE;
+        this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, FitStore.fileSize(slots, maxRecords));
+        this.map.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // The store named by -Dgauss.store, or null if none is named or it cannot be opened
+    private static FitStore openShared(){
+        String fileName = System.getProperty("gauss.store");
+        if(fileName==null || fileName.length()==0)return null;
+        try{
+            return new FitStore(fileName, Long.getLong("gauss.store.maxSize", DEFAULT_MAX_SIZE));
+        }
+        catch(IOException e){
+            System.err.println("Fit store not used: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static long fileSize(int slots, int maxRecords){
+        return HEADER_SIZE + (long)slots*SLOT_SIZE + (long)maxRecords*RECORD_SIZE;
+    }
+
+    // Stored result for key, with the given id, or null if there is none
+    synchronized FitResult get(ObservationHash.Digest key, Object id) throws IOException{
+        FileLock lock = this.channel.lock(0, Long.MAX_VALUE, true);
+        try{
+            int record = this.find(key);
+            if(record<0){
+                this.misses++;
+                return null;
+            }
+            this.hits++;
+            int at = this.recordStart + record*RECORD_SIZE;
+            return new FitResult(id, this.map.getDouble(at + 16), this.map.getDouble(at + 24), this.map.getDouble(at + 32),
+                                 this.map.getDouble(at + 40), this.map.getInt(at + 48), this.map.getInt(at + 52));
+        }
+        finally{
+            lock.release();
+        }
+    }
+
+    // Append the result for key, unless the store already holds one; failed and unconverged fits, and
+    // mixtures and full analyses, whose components and statistics do not fit in a record, are not stored
+    synchronized void put(ObservationHash.Digest key, FitResult result) throws IOException{
+        if(result.isFailed() || !result.isConverged() || result.isMixture() || result.getAnalysis()!=null)return;
+        FileLock lock = this.channel.lock();
+        try{
+            if(this.find(key)>=0)return;
+            int count = this.count();
+            if(count==this.maxRecords){
+                this.compact();
+                count = this.count();
+            }
+
+            // Record first, then its index slot, then the count, so a process that dies part way
+            // leaves at most a slot pointing past the count, which find and insert treat as empty
+            int at = this.recordStart + count*RECORD_SIZE;
+            this.map.putLong(at, key.getHigh());
+            this.map.putLong(at + 8, key.getLow());
+            this.map.putDouble(at + 16, result.getMean());
+            this.map.putDouble(at + 24, result.getSigma());
+            this.map.putDouble(at + 32, result.getMeanError());
+            this.map.putDouble(at + 40, result.getSigmaError());
+            this.map.putInt(at + 48, result.getIterations());
+            this.map.putInt(at + 52, result.getEvaluations());
+            this.insert(key.getLow(), count, count);
+            this.map.putLong(COUNT_AT, count + 1);
+        }
+        finally{
+            lock.release();
+        }
+    }
+
+    // Record number holding key, -1 if none; the caller holds a lock
+    private int find(ObservationHash.Digest key){
+        int count = this.count();
+        int mask = this.slots - 1;
+        for(int slot = (int)key.getLow() & mask; ; slot = (slot + 1) & mask){
+            long entry = this.map.getLong(HEADER_SIZE + slot*SLOT_SIZE);
+            if(entry==0 || entry>count)return -1;
+            int record = (int)(entry - 1);
+            int at = this.recordStart + record*RECORD_SIZE;
+            if(this.map.getLong(at)==key.getHigh() && this.map.getLong(at + 8)==key.getLow())return record;
+        }
+    }
+
+    // Point the first free slot for a key with the given low bits at record; slots that are empty or
+    // point at or past live, the number of live records, are free; the caller holds the exclusive lock
+    private void insert(long low, int record, int live){
+        int mask = this.slots - 1;
+        int slot = (int)low & mask;
+        while(true){
+            long entry = this.map.getLong(HEADER_SIZE + slot*SLOT_SIZE);
+            if(entry==0 || entry>live)break;
+            slot = (slot + 1) & mask;
+        }
+        this.map.putLong(HEADER_SIZE + slot*SLOT_SIZE, record + 1);
+    }
+
+    // Drop the older half of the records, move the newer half down and rebuild the index
+    // The newer half never overlaps the place it moves to, and the index is cleared only after the move,
+    // so a process that dies part way leaves an index that still finds only whole records
+    // The count is 0 while the index is rebuilt, so the records kept are inserted with keep as the
+    // number of live records: slots already pointing at them must not be taken as free
+    // The caller holds the exclusive lock
+    private void compact(){
+        int count = this.count();
+        int keep = count/2;
+        int from = this.recordStart + (count - keep)*RECORD_SIZE;
+        for(int i=0; i<keep*RECORD_SIZE; i+=8){
+            this.map.putLong(this.recordStart + i, this.map.getLong(from + i));
+        }
+        this.map.putLong(COUNT_AT, 0);
+        for(int slot=0; slot<this.slots; slot++)this.map.putLong(HEADER_SIZE + slot*SLOT_SIZE, 0L);
+        for(int record=0; record<keep; record++){
+            this.insert(this.map.getLong(this.recordStart + record*RECORD_SIZE + 8), record, keep);
+        }
+        this.map.putLong(COUNT_AT, keep);
+        this.map.putLong(COMPACTIONS_AT, this.map.getLong(COMPACTIONS_AT) + 1);
+    }
+
+    // Number of records in the file
+    private int count(){
+        return (int)this.map.getLong(COUNT_AT);
+    }
+
+    // Write the mapped file to disk and close it
+    synchronized void close() throws IOException{
+        this.map.force();
+        this.channel.close();
+    }
+
+    String getFileName(){
+        return this.fileName;
+    }
+
+    int getMaxRecords(){
+        return this.maxRecords;
+    }
+
+    synchronized long getHits(){
+        return this.hits;
+    }
+
+    synchronized long getMisses(){
+        return this.misses;
+    }
+
+    // Records and compactions in the file, and the lookups of this process, as JSON:
+    // {"records": ..,"maxRecords": ..,"compactions": ..,"hits": ..,"misses": ..}
+    synchronized String stats() throws IOException{
+        FileLock lock = this.channel.lock(0, Long.MAX_VALUE, true);
+        try{
+            return "{\"records\": " + this.count() + ",\"maxRecords\": " + this.maxRecords + ",\"compactions\": " + this.map.getLong(COMPACTIONS_AT)
+                   + ",\"hits\": " + this.hits + ",\"misses\": " + this.misses + "}";
+        }
+        finally{
+            lock.release();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+*   Class:   GaussLevenbergMarquardt
+*
+*   USAGE:  Levenberg-Marquardt least squares fit of the Gaussian function
+*               y = (Ao/(sigma.sqrt(2.pi))).exp(-0.5[(x - mu)/sigma]^2)
+*           to histogram data, using the closed-form partial derivatives
+*               dy/dmu    = y.(x - mu)/sigma^2
+*               dy/dsigma = y.([(x - mu)/sigma]^2 - 1)/sigma
+*               dy/dAo    = y/Ao
+*           in place of the numerical differences and function evaluations of a simplex.
+*           The function and its derivatives are evaluated over all bins at once by GaussObjective.
+*
+*           Parameter order is that of GaussFunction: p[0] = mu, p[1] = sigma, p[2] = Ao.
+*
+***************************************************************************************/
+
+import java.util.concurrent.CancellationException;
+
+class GaussLevenbergMarquardt{
+
+    private double[] xData = null;                  // bin centres
+    private double[] yData = null;                  // bin frequencies
+    private int nData = 0;                          // number of bins
+    private GaussObjective objective = null;        // bulk evaluator of the function over the bins
+
+    private int nMax = 500;                         // maximum number of iterations
+    private double tolerance = 1e-10;               // convergence tolerance on the relative change in the sum of squares
+
+    private double[] bestEstimates = null;          // best estimates of mu, sigma and Ao
+    private double[] bestEstimatesErrors = null;    // standard errors of the best estimates
+    private double[] yCalc = null;                  // frequencies calculated from the best estimates
+    private double sumOfSquares = Double.NaN;       // sum of squares of the residuals at the best estimates
+    private int nIter = 0;                          // number of iterations taken
+    private int nEval = 0;                          // number of evaluations of the function over all bins
+    private boolean converged = false;              // = true if the convergence criterion was satisfied
+
+    GaussLevenbergMarquardt(double[] xData, double[] yData){
+        this.xData = xData;
+        this.yData = yData;
+        this.nData = xData.length;
+        this.objective = GaussObjective.create(xData, yData);
+    }
+
+    // Reset the maximum number of iterations
+    void setNmax(int nMax){
+        this.nMax = nMax;
+    }
+
+    // Reset the convergence tolerance
+    void setTolerance(double tolerance){
+        this.tolerance = tolerance;
+    }
+
+    // Fit the Gaussian starting from start = {mu, sigma, Ao}
+    void fit(double[] start){
+        double[] p = start.clone();
+        double[] trial = new double[3];
+        double[] residual = new double[this.nData];
+        double[][] jacobian = new double[3][this.nData];     // jacobian[j][i] = dy(x[i])/dp[j]
+        double[][] alpha = new double[3][3];
+        double[] beta = new double[3];
+        double[][] lhs = new double[3][3];
+        double[] delta = new double[3];
+
+        double lambda = 1e-3;
+        double ss = this.jacobian(p, residual, jacobian);
+        this.nIter = 0;
+        this.converged = false;
+
+        while(this.nIter<this.nMax && !this.converged){
+            if(Thread.currentThread().isInterrupted())throw new CancellationException("fit cancelled");
+            this.nIter++;
+
+            // Normal equations: alpha = J'J, beta = J'r
+            for(int j=0; j<3; j++){
+                beta[j] = 0.0;
+                for(int k=0; k<3; k++)alpha[j][k] = 0.0;
+            }
+            for(int i=0; i<this.nData; i++){
+                for(int j=0; j<3; j++){
+                    beta[j] += jacobian[j][i]*residual[i];
+                    for(int k=0; k<=j; k++)alpha[j][k] += jacobian[j][i]*jacobian[k][i];
+                }
+            }
+            for(int j=0; j<3; j++){
+                for(int k=j+1; k<3; k++)alpha[j][k] = alpha[k][j];
+            }
+
+            // Increase the damping until a step reduces the sum of squares
+            boolean improved = false;
+            while(!improved && lambda<1e16){
+                for(int j=0; j<3; j++){
+                    for(int k=0; k<3; k++)lhs[j][k] = alpha[j][k];
+                    lhs[j][j] += lambda*(alpha[j][j]==0.0 ? 1.0 : alpha[j][j]);
+                }
+                if(!GaussLevenbergMarquardt.solve(lhs, beta, delta)){
+                    lambda *= 10.0;
+                    continue;
+                }
+                for(int j=0; j<3; j++)trial[j] = p[j] + delta[j];
+                double ssTrial = Double.POSITIVE_INFINITY;
+                if(trial[1]>0.0)ssTrial = this.sumOfSquares(trial);
+                if(ssTrial<=ss){
+                    improved = true;
+                    this.converged = (ss - ssTrial)<=this.tolerance*ss;
+                    for(int j=0; j<3; j++)p[j] = trial[j];
+                    ss = this.jacobian(p, residual, jacobian);
+                    lambda = Math.max(lambda/10.0, 1e-12);
+                }
+                else{
+                    lambda *= 10.0;
+                }
+            }
+            // No step reduces the sum of squares: p is a minimum to working precision
+            if(!improved)this.converged = true;
+        }
+
+        this.bestEstimates = p;
+        this.sumOfSquares = ss;
+        this.yCalc = new double[this.nData];
+        for(int i=0; i<this.nData; i++)this.yCalc[i] = this.yData[i] - residual[i];
+
+        // Standard errors from the covariance matrix s^2.inverse(J'J)
+        this.bestEstimatesErrors = new double[3];
+        for(int j=0; j<3; j++)this.bestEstimatesErrors[j] = Double.NaN;
+        if(this.nData>3){
+            double s2 = ss/(this.nData - 3);
+            double[][] jtj = new double[3][3];
+            for(int i=0; i<this.nData; i++){
+                for(int j=0; j<3; j++){
+                    for(int k=0; k<3; k++)jtj[j][k] += jacobian[j][i]*jacobian[k][i];
+                }
+            }
+            double[] unit = new double[3];
+            double[] column = new double[3];
+            for(int j=0; j<3; j++){
+                for(int k=0; k<3; k++)unit[k] = (k==j ? 1.0 : 0.0);
+                double[][] copy = new double[3][];
+                for(int k=0; k<3; k++)copy[k] = jtj[k].clone();
+                if(GaussLevenbergMarquardt.solve(copy, unit, column))this.bestEstimatesErrors[j] = Math.sqrt(s2*column[j]);
+            }
+        }
+    }
+
+    // Sum of squares of the residuals for parameters p
+    private double sumOfSquares(double[] p){
+        this.nEval++;
+        return this.objective.sumOfSquares(p);
+    }
+
+    // Residuals and analytic Jacobian for parameters p; returns the sum of squares of the residuals
+    private double jacobian(double[] p, double[] residual, double[][] jacobian){
+        this.nEval++;
+        return this.objective.jacobian(p, residual, jacobian[0], jacobian[1], jacobian[2]);
+    }
+
+    // Solve the 3 x 3 system a.x = b by Gaussian elimination with partial pivoting
+    // a is overwritten; returns false if a is singular
+    private static boolean solve(double[][] a, double[] b, double[] x){
+        double[] c = b.clone();
+        for(int col=0; col<3; col++){
+            int pivot = col;
+            for(int row=col+1; row<3; row++){
+                if(Math.abs(a[row][col])>Math.abs(a[pivot][col]))pivot = row;
+            }
+            if(a[pivot][col]==0.0 || Double.isNaN(a[pivot][col]))return false;
+            double[] holdA = a[col];
+            a[col] = a[pivot];
+            a[pivot] = holdA;
+            double holdC = c[col];
+            c[col] = c[pivot];
+            c[pivot] = holdC;
+            for(int row=col+1; row<3; row++){
+                double factor = a[row][col]/a[col][col];
+                for(int k=col; k<3; k++)a[row][k] -= factor*a[col][k];
+                c[row] -= factor*c[col];
+            }
+        }
+        for(int row=2; row>=0; row--){
+            double sum = c[row];
+            for(int k=row+1; k<3; k++)sum -= a[row][k]*x[k];
+            x[row] = sum/a[row][row];
+        }
+        return true;
+    }
+
+    // Best estimates of mu, sigma and Ao
+    double[] getBestEstimates(){
+        return this.bestEstimates.clone();
+    }
+
+    // Standard errors of the best estimates
+    double[] getBestEstimatesErrors(){
+        return this.bestEstimatesErrors.clone();
+    }
+
+    // Frequencies calculated from the best estimates
+    double[] getYcalc(){
+        return this.yCalc.clone();
+    }
+
+    // Residuals, experimental minus calculated frequencies
+    double[] getResiduals(){
+        double[] residuals = new double[this.nData];
+        for(int i=0; i<this.nData; i++)residuals[i] = this.yData[i] - this.yCalc[i];
+        return residuals;
+    }
+
+    // Sum of squares of the residuals at the best estimates
+    double getSumOfSquares(){
+        return this.sumOfSquares;
+    }
+
+    // Number of iterations taken
+    int getNiter(){
+        return this.nIter;
+    }
+
+    // Number of evaluations of the function over all bins
+    int getNevaluations(){
+        return this.nEval;
+    }
+
+    // = true if the convergence criterion was satisfied before the maximum number of iterations
+    boolean getConvergence(){
+        return this.converged;
+    }
+}
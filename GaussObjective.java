@@ -0,0 +1,126 @@
+/*
+*   Class:   GaussObjective
+*
+*   USAGE:  Bulk evaluation of the Gaussian function
+*               y = (Ao/(sigma.sqrt(2.pi))).exp(-0.5[(x - mu)/sigma]^2)
+*           over every histogram bin at once, for parameters p = {mu, sigma, Ao} in the order of GaussFunction
+*           The normalisation Ao/(sigma.sqrt(2.pi)) and the exponent factor -0.5/sigma^2 are calculated
+*           once per evaluation instead of once per bin, and each bin costs one subtraction,
+*           three multiplications and one exp.
+*
+*           create() returns the Vector API implementation, GaussObjectiveVector, when the JVM runs
+*           with --add-modules jdk.incubator.vector and that class has been compiled, and this scalar
+*           implementation otherwise. -Dgauss.vector=false forces the scalar implementation.
+*
+***************************************************************************************/
+
+import java.lang.reflect.Constructor;
+
+class GaussObjective{
+
+    static final double ROOT_TWO_PI = Math.sqrt(2.0*Math.PI);
+
+    // Constructor of GaussObjectiveVector, null if the Vector API implementation is not available
+    private static final Constructor<?> VECTOR = GaussObjective.vectorConstructor();
+
+    protected final double[] xData;                 // bin centres
+    protected final double[] yData;                 // bin frequencies
+    protected final int nData;                      // number of bins
+
+    GaussObjective(double[] xData, double[] yData){
+        if(xData.length!=yData.length)throw new IllegalArgumentException("x and y data lengths differ: " + xData.length + " and " + yData.length);
+        this.xData = xData;
+        this.yData = yData;
+        this.nData = xData.length;
+    }
+
+    // Objective for the bins, vectorised if possible
+    static GaussObjective create(double[] xData, double[] yData){
+        if(VECTOR!=null){
+            try{
+                return (GaussObjective)VECTOR.newInstance(xData, yData);
+            }
+            catch(ReflectiveOperationException e){
+                // fall through to the scalar implementation
+            }
+        }
+        return new GaussObjective(xData, yData);
+    }
+
+    private static Constructor<?> vectorConstructor(){
+        if(!Boolean.parseBoolean(System.getProperty("gauss.vector", "true")))return null;
+        if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())return null;
+        try{
+            return Class.forName("GaussObjectiveVector").getDeclaredConstructor(double[].class, double[].class);
+        }
+        catch(ReflectiveOperationException | LinkageError e){
+            return null;
+        }
+    }
+
+    // = true if this is the Vector API implementation
+    boolean isVectorized(){
+        return false;
+    }
+
+    // Sum of squares of the residuals y - f(x; p)
+    double sumOfSquares(double[] p){
+        double mu = p[0];
+        double norm = p[2]/(p[1]*ROOT_TWO_PI);
+        double c = -0.5/(p[1]*p[1]);
+        double ss = 0.0;
+        for(int i=0; i<this.nData; i++){
+            double d = this.xData[i] - mu;
+            double r = this.yData[i] - norm*Math.exp(c*d*d);
+            ss += r*r;
+        }
+        return ss;
+    }
+
+    // Model values f(x; p) into yCalc; returns the sum of squares of the residuals
+    double model(double[] p, double[] yCalc){
+        double mu = p[0];
+        double norm = p[2]/(p[1]*ROOT_TWO_PI);
+        double c = -0.5/(p[1]*p[1]);
+        double ss = 0.0;
+        for(int i=0; i<this.nData; i++){
+            double d = this.xData[i] - mu;
+            double y = norm*Math.exp(c*d*d);
+            double r = this.yData[i] - y;
+            yCalc[i] = y;
+            ss += r*r;
+        }
+        return ss;
+    }
+
+    // Residuals y - f(x; p) and the partial derivatives of f with respect to mu, sigma and Ao
+    //     df/dmu    = f.(x - mu)/sigma^2
+    //     df/dsigma = f.([(x - mu)/sigma]^2 - 1)/sigma
+    //     df/dAo    = f/Ao
+    // Returns the sum of squares of the residuals
+    double jacobian(double[] p, double[] residual, double[] dMu, double[] dSigma, double[] dAo){
+        double mu = p[0];
+        double sigma = p[1];
+        double invSigma = 1.0/sigma;
+        double gauss = invSigma/ROOT_TWO_PI;
+        double c = -0.5*invSigma*invSigma;
+        double ss = 0.0;
+        for(int i=0; i<this.nData; i++){
+            double d = this.xData[i] - mu;
+            double shape = gauss*Math.exp(c*d*d);
+            double y = p[2]*shape;
+            double z = d*invSigma;
+            double r = this.yData[i] - y;
+            residual[i] = r;
+            ss += r*r;
+            dMu[i] = y*z*invSigma;
+            dSigma[i] = y*(z*z - 1.0)*invSigma;
+            dAo[i] = shape;
+        }
+        return ss;
+    }
+
+    int getNdata(){
+        return this.nData;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+*   Class:   GaussObjectiveVector
+*
+*   USAGE:  Vector API (jdk.incubator.vector) implementation of GaussObjective
+*           The bins are evaluated DoubleVector.SPECIES_PREFERRED.length() at a time: four lanes with
+*           AVX2, eight with AVX-512. exp is the lanewise VectorOperators.EXP, intrinsified where the
+*           platform has a vector maths library. The remaining bins go through the scalar loop.
+*           Sums are accumulated per lane and reduced at the end, so results may differ from the
+*           scalar implementation in the last bits.
+*
+*           This class needs the incubator module both to compile and to run:
+*
+*           javac --add-modules jdk.incubator.vector -cp .:flanagan.jar:json-20160212.jar GaussObjectiveVector.java
+*           java --add-modules jdk.incubator.vector -cp .:flanagan.jar:json-20160212.jar GaussianFit2 "{...}"
+*
+*           GaussObjective.create() loads it reflectively, so every other class compiles and runs
+*           without the module, and falls back to the scalar implementation.
+*
+***************************************************************************************/
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+final class GaussObjectiveVector extends GaussObjective{
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    GaussObjectiveVector(double[] xData, double[] yData){
+        super(xData, yData);
+    }
+
+    boolean isVectorized(){
+        return true;
+    }
+
+    double sumOfSquares(double[] p){
+        double mu = p[0];
+        double norm = p[2]/(p[1]*ROOT_TWO_PI);
+        double c = -0.5/(p[1]*p[1]);
+        DoubleVector vMu = DoubleVector.broadcast(SPECIES, mu);
+        DoubleVector vNorm = DoubleVector.broadcast(SPECIES, norm);
+        DoubleVector vC = DoubleVector.broadcast(SPECIES, c);
+        DoubleVector vSs = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(this.nData);
+        int i = 0;
+        for(; i<upper; i+=SPECIES.length()){
+            DoubleVector d = DoubleVector.fromArray(SPECIES, this.xData, i).sub(vMu);
+            DoubleVector y = d.mul(d).mul(vC).lanewise(VectorOperators.EXP).mul(vNorm);
+            DoubleVector r = DoubleVector.fromArray(SPECIES, this.yData, i).sub(y);
+            vSs = r.fma(r, vSs);
+        }
+        double ss = vSs.reduceLanes(VectorOperators.ADD);
+        for(; i<this.nData; i++){
+            double d = this.xData[i] - mu;
+            double r = this.yData[i] - norm*Math.exp(c*d*d);
+            ss += r*r;
+        }
+        return ss;
+    }
+
+    double model(double[] p, double[] yCalc){
+        double mu = p[0];
+        double norm = p[2]/(p[1]*ROOT_TWO_PI);
+        double c = -0.5/(p[1]*p[1]);
+        DoubleVector vMu = DoubleVector.broadcast(SPECIES, mu);
+        DoubleVector vNorm = DoubleVector.broadcast(SPECIES, norm);
+        DoubleVector vC = DoubleVector.broadcast(SPECIES, c);
+        DoubleVector vSs = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(this.nData);
+        int i = 0;
+        for(; i<upper; i+=SPECIES.length()){
+            DoubleVector d = DoubleVector.fromArray(SPECIES, this.xData, i).sub(vMu);
+            DoubleVector y = d.mul(d).mul(vC).lanewise(VectorOperators.EXP).mul(vNorm);
+            y.intoArray(yCalc, i);
+            DoubleVector r = DoubleVector.fromArray(SPECIES, this.yData, i).sub(y);
+            vSs = r.fma(r, vSs);
+        }
+        double ss = vSs.reduceLanes(VectorOperators.ADD);
+        for(; i<this.nData; i++){
+            double d = this.xData[i] - mu;
+            double y = norm*Math.exp(c*d*d);
+            double r = this.yData[i] - y;
+            yCalc[i] = y;
+            ss += r*r;
+        }
+        return ss;
+    }
+
+    double jacobian(double[] p, double[] residual, double[] dMu, double[] dSigma, double[] dAo){
+        double mu = p[0];
+        double invSigma = 1.0/p[1];
+        double gauss = invSigma/ROOT_TWO_PI;
+        double c = -0.5*invSigma*invSigma;
+        DoubleVector vMu = DoubleVector.broadcast(SPECIES, mu);
+        DoubleVector vGauss = DoubleVector.broadcast(SPECIES, gauss);
+        DoubleVector vC = DoubleVector.broadcast(SPECIES, c);
+        DoubleVector vAo = DoubleVector.broadcast(SPECIES, p[2]);
+        DoubleVector vInvSigma = DoubleVector.broadcast(SPECIES, invSigma);
+        DoubleVector vSs = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(this.nData);
+        int i = 0;
+        for(; i<upper; i+=SPECIES.length()){
+            DoubleVector d = DoubleVector.fromArray(SPECIES, this.xData, i).sub(vMu);
+            DoubleVector shape = d.mul(d).mul(vC).lanewise(VectorOperators.EXP).mul(vGauss);
+            DoubleVector y = shape.mul(vAo);
+            DoubleVector z = d.mul(vInvSigma);
+            DoubleVector r = DoubleVector.fromArray(SPECIES, this.yData, i).sub(y);
+            r.intoArray(residual, i);
+            vSs = r.fma(r, vSs);
+            y.mul(z).mul(vInvSigma).intoArray(dMu, i);
+            y.mul(z.mul(z).sub(1.0)).mul(vInvSigma).intoArray(dSigma, i);
+            shape.intoArray(dAo, i);
+        }
+        double ss = vSs.reduceLanes(VectorOperators.ADD);
+        for(; i<this.nData; i++){
+            double d = this.xData[i] - mu;
+            double shape = gauss*Math.exp(c*d*d);
+            double y = p[2]*shape;
+            double z = d*invSigma;
+            double r = this.yData[i] - y;
+            residual[i] = r;
+            ss += r*r;
+            dMu[i] = y*z*invSigma;
+            dSigma[i] = y*(z*z - 1.0)*invSigma;
+            dAo[i] = shape;
+        }
+        return ss;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+*   Class:   GaussianEstimator
+*
+*   USAGE:  Online estimator of the mean, standard deviation, moment skewness and excess kurtosis
+*           of a growing set of observations. Each add(double) updates the running central moments
+*           with the one-pass Welford/Terriberry recurrences, so a refit after new observations
+*           arrive costs O(1) per new observation and the statistics can be read at any time in O(1),
+*           instead of recomputing statistics(1) over the whole array.
+*
+*           Definitions are those of statistics(1), i.e. of flanagan.analysis.Stat:
+*               standard deviation  sqrt(M2/(n - 1))
+*               moment skewness     (M3/(n - 1))/(M2/(n - 1))^1.5
+*               excess kurtosis     (M4/(n - 1))/(M2/(n - 1))^2 - 3
+*           where Mk is the sum of the k-th powers of the deviations from the mean.
+*           Median and quartile skewness need the ordered data and are not available online.
+*
+*           remove(double) reverses an add, for sliding windows, and merge(GaussianEstimator)
+*           combines two estimators (Chan et al.), for partial results built separately.
+*
+***************************************************************************************/
+
+class GaussianEstimator{
+
+    private long n = 0;                             // number of observations
+    private double mean = 0.0;                      // running mean
+    private double m2 = 0.0;                        // sum of squared deviations from the mean
+    private double m3 = 0.0;                        // sum of cubed deviations from the mean
+    private double m4 = 0.0;                        // sum of fourth powers of the deviations from the mean
+
+    // Add one observation
+    void add(double x){
+        long n1 = this.n;
+        this.n++;
+        double delta = x - this.mean;
+        double deltaN = delta/this.n;
+        double deltaN2 = deltaN*deltaN;
+        double term1 = delta*deltaN*n1;
+        this.mean += deltaN;
+        this.m4 += term1*deltaN2*(this.n*this.n - 3*this.n + 3) + 6.0*deltaN2*this.m2 - 4.0*deltaN*this.m3;
+        this.m3 += term1*deltaN*(this.n - 2) - 3.0*deltaN*this.m2;
+        this.m2 += term1;
+    }
+
+    // Add an array of observations
+    void addAll(double[] x){
+        for(int i=0; i<x.length; i++)this.add(x[i]);
+    }
+
+    // Remove an observation previously added: the exact inverse of add(x)
+    void remove(double x){
+        if(this.n==0)throw new IllegalStateException("no observations to remove");
+        if(this.n==1){
+            this.clear();
+            return;
+        }
+        long n1 = this.n - 1;
+        double meanPrevious = (this.n*this.mean - x)/n1;
+        double delta = x - meanPrevious;
+        double deltaN = delta/this.n;
+        double deltaN2 = deltaN*deltaN;
+        double term1 = delta*deltaN*n1;
+        double m2Previous = this.m2 - term1;
+        if(m2Previous<0.0)m2Previous = 0.0;
+        double m3Previous = this.m3 - (term1*deltaN*(this.n - 2) - 3.0*deltaN*m2Previous);
+        double m4Previous = this.m4 - (term1*deltaN2*(this.n*this.n - 3*this.n + 3) + 6.0*deltaN2*m2Previous - 4.0*deltaN*m3Previous);
+        this.n = n1;
+        this.mean = meanPrevious;
+        this.m2 = m2Previous;
+        this.m3 = m3Previous;
+        this.m4 = m4Previous;
+    }
+
+    // Combine the observations of another estimator into this one
+    void merge(GaussianEstimator other){
+        if(other.n==0)return;
+        if(this.n==0){
+            this.n = other.n;
+            this.mean = other.mean;
+            this.m2 = other.m2;
+            this.m3 = other.m3;
+            this.m4 = other.m4;
+            return;
+        }
+        double na = this.n;
+        double nb = other.n;
+        double nx = na + nb;
+        double delta = other.mean - this.mean;
+        double delta2 = delta*delta;
+        double delta3 = delta2*delta;
+        double delta4 = delta2*delta2;
+        double m4 = this.m4 + other.m4 + delta4*na*nb*(na*na - na*nb + nb*nb)/(nx*nx*nx)
+                    + 6.0*delta2*(na*na*other.m2 + nb*nb*this.m2)/(nx*nx) + 4.0*delta*(na*other.m3 - nb*this.m3)/nx;
+        double m3 = this.m3 + other.m3 + delta3*na*nb*(na - nb)/(nx*nx) + 3.0*delta*(na*other.m2 - nb*this.m2)/nx;
+        double m2 = this.m2 + other.m2 + delta2*na*nb/nx;
+        this.mean += delta*nb/nx;
+        this.m2 = m2;
+        this.m3 = m3;
+        this.m4 = m4;
+        this.n += other.n;
+    }
+
+    // Remove all observations
+    void clear(){
+        this.n = 0;
+        this.mean = 0.0;
+        this.m2 = 0.0;
+        this.m3 = 0.0;
+        this.m4 = 0.0;
+    }
+
+    // Number of observations
+    long getN(){
+        return this.n;
+    }
+
+    // Mean
+    double mean(){
+        if(this.n==0)return Double.NaN;
+        return this.mean;
+    }
+
+    // Standard deviation, n - 1 denominator
+    double standardDeviation(){
+        return Math.sqrt(this.variance());
+    }
+
+    // Variance, n - 1 denominator
+    double variance(){
+        if(this.n<2)return Double.NaN;
+        return this.m2/(this.n - 1);
+    }
+
+    // Moment skewness
+    double momentSkewness(){
+        double var = this.variance();
+        return (this.m3/(this.n - 1))/Math.pow(var, 1.5);
+    }
+
+    // Excess kurtosis
+    double excessKurtosis(){
+        double var = this.variance();
+        return (this.m4/(this.n - 1))/(var*var) - 3.0;
+    }
+}
@@ -45,7 +45,6 @@ import flanagan.io.FileChooser;
 import flanagan.io.FileOutput;
 import flanagan.analysis.Regression;
 import flanagan.analysis.RegressionFunction;
-import flanagan.analysis.ProbabilityPlot;
 import flanagan.analysis.Stat;
 import flanagan.plot.PlotGraph;
 import flanagan.interpolation.CubicSpline;
@@ -53,6 +52,9 @@ import flanagan.interpolation.CubicSpline;
 import javax.swing.JOptionPane;
 import java.util.*;
 import java.text.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
 
 import org.json.*;
 
@@ -76,6 +78,7 @@ public class GaussianFit2{
     private double peakValue = -1;                  // frequency value for peak bin
     private double peakPosition = -1;               // position of peak bin
     private double binWidth = 0;                    // histogram bin width
+    private BinRule binRule = BinRule.DEFAULT;      // rule choosing the number of histogram bins
     private int nBinPoints = 0;                     // number of histogram coordinates
     private double[] binXpoints = null;             // histogram x-coordinates
     private double[] binYpoints = null;             // histogram y-coordinates
@@ -105,19 +108,34 @@ public class GaussianFit2{
     private double meanUsed = 0.0;                  // used mean of the marks
     private double standardDeviationUsed = 0.0;     // used standard deviation of the marks
 
-    private ProbabilityPlot probPlot = null;        // instance of probabilityPlot
+    private OrderStatistics orderStatistics = null; // sorted copy of the marks, made when first needed, with the probability plot
     private double meanProbPlot = 0.0;              // best estimate mean from a probability plot
     private double standardDeviationProbPlot = 0.0; // best estimate standard deviation from a probability plot
 
     private Regression reg = null;                  // instance of Regression
      double meanFit = 0.0;                   // best estimate mean (mu) from non-linear regression
      double standardDeviationFit = 0.0;      // best estimate standard deviation (sigma) from non-linear regression
-    private double scaleConstantFit = 0.0;          // best estimate scale constant (Ao) from non-linear regression
+     double scaleConstantFit = 0.0;          // best estimate scale constant (Ao) from non-linear regression
+    private double[] warmStart = null;              // estimates of mu, sigma and Ao to start the regression from, null to start as by start
+    private String start = "moments";               // simplex start: "moments", "logparabola" or "peak" (see initialEstimates)
+    private int reweight = LogParabola.DEFAULT_REWEIGHT;    // number of reweighting passes of a log-parabola fit (see LogParabola)
+    private double meanFitError = Double.NaN;       // standard error of the best estimate mean, if calculated
+    private double standardDeviationFitError = Double.NaN;  // standard error of the best estimate standard deviation, if calculated
+    private int nIterations = -1;                   // number of fitting iterations, if recorded
+    private int nEvaluations = -1;                  // number of fitting function evaluations over all bins, if recorded
+    private boolean converged = true;               // = false if the regression stopped at its iteration limit without converging
     private double[] calculatedFrequency = null;    // frequency values calculated for best estimates
     private double[] residuals = null;              // residuals
 
     private int trunc = 2;                          // precision (number of decimal places) in the output files
     private int field = 14;                         // output file field width
+    private boolean quiet = false;                  // = true if flanagan Regression messages are to be suppressed
+    private boolean errorStatistics = false;        // = true if the regression error statistics are calculated, for the full analysis and output()
+    private int parallelThreshold = ParallelStatistics.DEFAULT_THRESHOLD;  // number of marks at which fork/join statistics are used
+    private ParallelStatistics parallelStatistics = null;   // fork/join statistics, if used
+    private Moments moments = null;                 // moments and range of the marks from statistics(), if not from parallelStatistics
+    private int sketchSize = 0;                     // size k of the QuantileSketch for the median and quartile skewness, 0 to sort the marks
+    private QuantileSketch sketch = null;           // quantile sketch of the marks from statistics(), if sketchSize is not 0
 
 
     // Read in and store the marks
@@ -264,30 +282,66 @@ public class GaussianFit2{
 
     //  Calculate statistics
     private void statistics(int flag){
-        Stat st = new Stat(this.examMarks);
+        this.orderStatistics = null;
+
+        // Moments: fork/join passes for very large data sets, otherwise one fused pass
+        double mean = 0.0;
+        double sd = 0.0;
+        double skew = 0.0;
+        double kurt = 0.0;
+        if(this.numberPresent>=this.parallelThreshold){
+            this.parallelStatistics = new ParallelStatistics(this.examMarks);
+            this.parallelStatistics.moments();
+            mean = this.parallelStatistics.getMean();
+            sd = this.parallelStatistics.getStandardDeviation();
+            skew = this.parallelStatistics.getMomentSkewness();
+            kurt = this.parallelStatistics.getExcessKurtosis();
+        }
+        else{
+            this.parallelStatistics = null;
+            this.moments = Moments.of(this.examMarks, 0, this.numberPresent);
+            mean = this.moments.mean();
+            sd = this.moments.standardDeviation();
+            skew = this.moments.momentSkewness();
+            kurt = this.moments.excessKurtosis();
+        }
+
+        // Median and quartile skewness: from the one sorted copy of the marks, or estimated in one pass by a QuantileSketch
+        double medianSkew = 0.0;
+        double quartileSkew = 0.0;
+        if(this.sketchSize>0){
+            this.sketch = new QuantileSketch(this.sketchSize);
+            this.sketch.addAll(this.examMarks, 0, this.numberPresent);
+            medianSkew = 3.0*(mean - this.sketch.median())/sd;
+            quartileSkew = this.sketch.quartileSkewness();
+        }
+        else{
+            medianSkew = this.orderStatistics().medianSkewness(mean, sd);
+            quartileSkew = this.orderStatistics().quartileSkewness();
+        }
 
         if(flag==1){
             // unscaled data
-            this.meanCalc = st.mean();
+            this.meanCalc = mean;
            // System.out.println("mean:" + this.meanCalc);
             this.meanUsed = this.meanCalc;
-            this.standardDeviationCalc = st.standardDeviation();
+            this.standardDeviationCalc = sd;
             this.standardDeviationUsed = this.standardDeviationCalc;
-            this.momentSkewness = st.momentSkewness();
-            this.medianSkewness = st.medianSkewness();
-            this.quartileSkewness = st.quartileSkewness();
-            this.excessKurtosis = st.excessKurtosis();
+            this.momentSkewness = skew;
+            this.medianSkewness = medianSkew;
+            this.quartileSkewness = quartileSkew;
+            this.excessKurtosis = kurt;
         }
         else{
             // scaled data
-            this.meanScaled = st.mean();
+            this.meanScaled = mean;
             this.meanUsed = this.meanScaled;
-            this.standardDeviationScaled = st.standardDeviation();
+            this.standardDeviationScaled = sd;
             this.standardDeviationUsed = this.standardDeviationScaled;
-            this.momentSkewnessScaled = st.momentSkewness();
-            this.medianSkewnessScaled = st.medianSkewness();
-            this.quartileSkewnessScaled = st.quartileSkewness();
-            this.excessKurtosisScaled = st.excessKurtosis();
+            this.momentSkewnessScaled = skew;
+            this.medianSkewnessScaled = medianSkew;
+            this.quartileSkewnessScaled = quartileSkew;
+            this.excessKurtosisScaled = kurt;
         }
     }
 
@@ -340,36 +394,49 @@ public class GaussianFit2{
         }
     }
 
+    // Sorted copy of the marks, shared by the median, quartiles and probability plot and sorted only once
+    private OrderStatistics orderStatistics(){
+        if(this.orderStatistics==null)this.orderStatistics = OrderStatistics.of(this.examMarks, this.numberPresent);
+        return this.orderStatistics;
+    }
+
+    // Interquartile range of the marks, from the quantile sketch if statistics() made one, otherwise from the sorted marks
+    private double interquartileRange(){
+        if(this.sketch!=null)return this.sketch.quantile(0.75) - this.sketch.quantile(0.25);
+        return this.orderStatistics().interquartileRange();
+    }
+
     // Probability plot
     private void probabilityPlot(){
 
-        // Create an instance of ProbabilityPlot
-        this.probPlot = new ProbabilityPlot(this.examMarks);
-
-        // Perform Gaussian probability plot fitting
-        this.probPlot.gaussianProbabilityPlot();
-        this.meanProbPlot = this.probPlot.gaussianMu();
-        this.standardDeviationProbPlot = this.probPlot.gaussianSigma();
+        // Perform Gaussian probability plot fitting on the sorted marks
+        this.orderStatistics().gaussianProbabilityPlot();
+        this.meanProbPlot = this.orderStatistics.gaussianMu();
+        this.standardDeviationProbPlot = this.orderStatistics.gaussianSigma();
     }
 
 
     // Distribute data into histogram bins
     private void histogram(){
-        double min = Fmath.minimum(this.examMarks);
-        double max = Fmath.maximum(this.examMarks);
+        double min = 0.0;
+        double max = 0.0;
+        if(this.parallelStatistics!=null){
+            min = this.parallelStatistics.getMinimum();
+            max = this.parallelStatistics.getMaximum();
+        }
+        else if(this.moments!=null){
+            min = this.moments.getMinimum();
+            max = this.moments.getMaximum();
+        }
+        else{
+            min = Fmath.minimum(this.examMarks);
+            max = Fmath.maximum(this.examMarks);
+        }
         double range = max - min;
        // System.out.println("min: " + min + " max: " + max + " range: " + range);
-        this.binWidth = Math.rint((2.0*this.standardDeviationUsed)/Math.sqrt(this.numberPresent));
-        //if(this.binWidth<2.0)this.binWidth = 2.0;
-        //System.out.println("this.binWIdth: " + this.binWidth);
-        // Decide on the histogram bin number and bin width
-        String message = "The data has been arranged as an histogram\n";
-        message += " needed for the data fitting procedure\n";
-        message += "The suggested histogram bin width is " + this.binWidth + " marks\n\n";
-        message += "Enter the histogram bin width";
-       // this.binWidth = Db.readDouble(message, this.binWidth);
-        this.binWidth=0.1;
-        this.nBins = (int)Math.round(range/this.binWidth);
+        // Decide on the histogram bin number by the request's bin rule, at most its maximum number of bins
+        // The interquartile range comes from the quantile sketch if the other quantiles did, so the marks are not sorted
+        this.nBins = this.binRule.numberOfBins(this.numberPresent, min, max, this.standardDeviationUsed, this::interquartileRange);
        // System.out.println("bins: " + this.nBins);
         this.binWidth = range/this.nBins;
 
@@ -388,21 +455,29 @@ public class GaussianFit2{
         }
         binStart[0] *= 0.8;
         binEnd[this.nBins-1] *= 1.2;
+
+        // Single pass over the marks, split across a ForkJoinPool for very large data sets
         int ii = 0;
-        for(int i=0; i<this.nBins; i++){
-            this.frequency[i] = 0;
-            for(int j=0; j<this.numberPresent; j++){
-                if(this.examMarks[j]>=binStart[i] && this.examMarks[j]<binEnd[i]){
-                    frequency[i] += 1.0;
-                    ii++;
-                }
-            }
+        if(this.parallelStatistics!=null){
+            ii = this.parallelStatistics.histogram(min, this.binWidth, binStart, binEnd, this.frequency);
+        }
+        else{
+            long[] counts = new long[this.nBins + 1];
+            ParallelStatistics.countBins(this.examMarks, 0, this.numberPresent, min, this.binWidth, binStart, binEnd, counts);
+            for(int i=0; i<this.nBins; i++)this.frequency[i] = counts[i];
+            ii = (int)counts[this.nBins];
         }
-        if(ii!=this.numberPresent)System.out.println("The number of points in the histogram, " + ii + ", does not equal the number of examination marks, " + this.numberPresent);
+        // Reported on stderr, and not at all when quiet: stdout carries the JSON replies
+        if(ii!=this.numberPresent && !this.quiet)System.err.println("The number of points in the histogram, " + ii + ", does not equal the number of examination marks, " + this.numberPresent);
         binStart[0] /= 0.8;
         binEnd[this.nBins-1] /= 1.2;
 
-        // Histogram points
+        this.histogramOutline(binStart, binEnd);
+        this.peakBin();
+    }
+
+    // Histogram points outlining the bins
+    private void histogramOutline(double[] binStart, double[] binEnd){
         this.nBinPoints = 3*this.nBins + 1;
         this.binXpoints = new double[this.nBinPoints];
         this.binYpoints = new double[this.nBinPoints];
@@ -416,8 +491,10 @@ public class GaussianFit2{
         }
         this.binXpoints[this.nBinPoints-1] = binEnd[this.nBins-1];
         this.binYpoints[this.nBinPoints-1] = 0.0;;
+    }
 
-        // Peak bin
+    // Peak bin
+    private void peakBin(){
         this.peakValue = Fmath.maximum(this.frequency);
         for(int i=0; i<this.nBins; i++){
             //System.out.println("Bin frequency: " + this.frequency[i]);
@@ -432,11 +509,87 @@ public class GaussianFit2{
         }
     }
 
+    // Set the histogram from bins built elsewhere, e.g. by SlidingGaussianFit, in place of histogram()
+    // marks are the bin centres, equally spaced by binWidth
+    private void histogram(double[] marks, double[] frequency, double binWidth){
+        this.marks = marks;
+        this.frequency = frequency;
+        this.nBins = marks.length;
+        this.binWidth = binWidth;
+        double[] binStart = new double[this.nBins];
+        double[] binEnd = new double[this.nBins];
+        for(int i=0; i<this.nBins; i++){
+            binStart[i] = marks[i] - binWidth/2.0;
+            binEnd[i] = marks[i] + binWidth/2.0;
+        }
+        this.histogramOutline(binStart, binEnd);
+        this.peakBin();
+    }
+
+    // Initial estimates of mu, sigma and Ao, and the initial simplex step sizes, as chosen by start:
+    //     "moments"      the mean and standard deviation of the marks, and Ao the area of the histogram
+    //     "logparabola"  the closed-form log-parabola fit to the bin counts (see LogParabola), or the
+    //                    moments if the counts do not curve downwards
+    //     "peak"         the peak bin, sigma and a scale from the peak height, with steps of a tenth of
+    //                    the peak position, of sigma and of that scale
+    // The moment and log-parabola starts lie close to the optimum, so their steps are scaled to it:
+    // a tenth of sigma, but at least half a bin width, for mu, a tenth of sigma and a tenth of Ao;
+    // a step of a tenth of the peak position, 1.6 for marks around 16, sends the simplex far away first
+    // "moments" is the default: from the peak the simplex settles on mu = 465.9 for GaussDataOne.txt, whose
+    // marks run from 24 to 92, where the moment start gives 61.80
+    // For a warm start the estimates of an earlier fit are used, with steps of a twentieth of sigma and of Ao
+    private void initialEstimates(double[] start, double[] step){
+        if(this.warmStart!=null){
+            start[0] = this.warmStart[0];
+            start[1] = this.warmStart[1];
+            start[2] = this.warmStart[2];
+            step[0] = this.warmStart[1]/20.0;
+            step[1] = this.warmStart[1]/20.0;
+            step[2] = this.warmStart[2]/20.0;
+            return;
+        }
+        if(this.start.equals("peak")){
+            start[0] = this.peakPosition;
+            if(this.peakPosition==0.0){
+                step[0] = this.standardDeviationUsed/20.0;
+            }
+            else{
+                step[0] = this.peakPosition/10.0;
+            }
+            start[1] = this.standardDeviationUsed;
+            step[1] = this.standardDeviationUsed/10.0;
+            start[2] = this.peakValue*this.standardDeviationUsed*Math.sqrt(2.0*Math.PI);
+            step[2] = start[2]/10.0;
+            return;
+        }
+        LogParabola lp = this.start.equals("logparabola") ? LogParabola.fit(this.marks, this.frequency, this.reweight) : null;
+        if(lp!=null){
+            start[0] = lp.getMu();
+            start[1] = lp.getSigma();
+            start[2] = lp.getScale();
+        }
+        else{
+            double count = 0.0;
+            for(int i=0; i<this.nBins; i++)count += this.frequency[i];
+            start[0] = this.meanUsed;
+            start[1] = this.standardDeviationUsed;
+            start[2] = count*this.binWidth;
+        }
+        step[0] = Math.max(start[1]/10.0, this.binWidth/2.0);
+        step[1] = start[1]/10.0;
+        step[2] = start[2]/10.0;
+    }
+
     // Perform regression
     private void performRegression(){
 
         // Create an instance of Regression
         this.reg = new Regression(this.marks, this.frequency);
+        if(this.quiet)this.reg.suppressErrorMessages();
+
+        // The covariance matrix, by a numerical Hessian, and the statistics from it are only
+        // calculated when they are reported; a lean fit needs the best estimates alone
+        if(!this.errorStatistics)this.reg.suppressStats();
 
         // Create an instance of GaussFunction
         GaussFunction gf = new GaussFunction();
@@ -444,30 +597,31 @@ public class GaussianFit2{
         // Initial estimates
         double[] start = new double[3];
         double[] step = new double[3];
-        start[0] = this.peakPosition;
-        if(this.peakPosition==0.0){
-            step[0] = this.standardDeviationUsed/20.0;
-        }
-        else{
-            step[0] = this.peakPosition/10.0;
-        }
-        start[1] = this.standardDeviationUsed;
-        step[1] = this.standardDeviationUsed/10.0;
-        start[2] = this.peakValue*this.standardDeviationUsed*Math.sqrt(2.0*Math.PI);
-        step[2] = start[2]/10.0;
+        this.initialEstimates(start, step);
 
         this.reg.simplex(gf, start, step);
+        this.nIterations = this.reg.getNiter();
+        this.converged = this.reg.getNlrStatus();
+        this.nEvaluations = (int)(gf.getCalls()/this.nBins);
 
         double[] bestEstimates = this.reg.getBestEstimates();
         this.meanFit = bestEstimates[0];
         this.standardDeviationFit = bestEstimates[1];
         this.scaleConstantFit = bestEstimates[2];
+        if(this.errorStatistics){
+            double[] errors = this.reg.getBestEstimatesErrors();
+            this.meanFitError = errors[0];
+            this.standardDeviationFitError = errors[1];
+        }
 
         this.calculatedFrequency = this.reg.getYcalc();
         this.residuals = this.reg.getResiduals();
+    }
 
-        // Plot regression fit
-        double[][] data = PlotGraph.data(3, 200);
+    // Plot data of the histogram and the regression fit: the bin centres and their frequencies, 200 points
+    // interpolated on the fitted curve and the histogram outline, as rows 0 to 5
+    // Only built when a plot is asked for: the interpolation is not needed for the fit itself
+    private double[][] plotData(){
         CubicSpline cs = new CubicSpline(this.marks, this.calculatedFrequency);
         double[] xInterp = new double[200];
         double[] yInterp = new double[200];
@@ -476,30 +630,93 @@ public class GaussianFit2{
         for(int i=1; i<199; i++)xInterp[i] = xInterp[i-1] + inc;
         xInterp[199] = this.marks[this.nBins-1];
         for(int i=0; i<200; i++)yInterp[i] = cs.interpolate(xInterp[i]);
-        for(int i=0; i<this.nBins; i++){
-            data[0][i] = this.marks[i];
-            data[1][i] = this.frequency[i];
-        }
-        for(int i=0; i<200; i++){
-            data[2][i] = xInterp[i];
-            data[3][i] = yInterp[i];
-        }
-        for(int i=0; i<this.nBinPoints; i++){
-            data[4][i] = this.binXpoints[i];
-            data[5][i] = this.binYpoints[i];
-        }
-        /*
+        return new double[][]{Arrays.copyOf(this.marks, this.nBins), Arrays.copyOf(this.frequency, this.nBins), xInterp, yInterp,
+                              Arrays.copyOf(this.binXpoints, this.nBinPoints), Arrays.copyOf(this.binYpoints, this.nBinPoints)};
+    }
+
+    // Show the plot data of a fit in a PlotGraph window
+    // Only called from the interactive command line: fits for the server and --batch return the plot data instead
+    private static void plot(FitResult result, JSONObject request){
+        double[][] plot = result.getPlot();
+        double[][] data = PlotGraph.data(3, Math.max(plot[2].length, plot[4].length));
+        for(int j=0; j<plot.length; j++)System.arraycopy(plot[j], 0, data[j], 0, plot[j].length);
         PlotGraph pg = new PlotGraph(data);
         int[] lopt = {0,3,3};
         pg.setLine(lopt);
         int[] popt = {4,0,0};
         pg.setPoint(popt);
-        pg.setGraphTitle("Program: GaussianFit.  Data File: " + this.inputFileName);
-        pg.setGraphTitle2("Data title: " + this.title + ":  mu = " + Fmath.truncate(this.meanFit, this.trunc) + "    sigma = " + Fmath.truncate(this.standardDeviationFit, this.trunc));
+        pg.setGraphTitle("Program: GaussianFit.  Data File: " + request.optString("file", null));
+        pg.setGraphTitle2("Data title: " + request.optString("title", null) + ":  mu = " + Fmath.truncate(result.getMean(), 2) + "    sigma = " + Fmath.truncate(result.getSigma(), 2));
         pg.setXaxisLegend("Marks");
         pg.setYaxisLegend("Frequency");
         pg.plot();
-        */
+    }
+
+    // Perform regression by Levenberg-Marquardt with the analytic derivatives of GaussFunction
+    // Same initial estimates as the simplex; the iterations and function evaluations are recorded
+    private void performLevenbergMarquardt(){
+        double[] start = new double[3];
+        double[] step = new double[3];
+        this.initialEstimates(start, step);
+
+        GaussLevenbergMarquardt lm = new GaussLevenbergMarquardt(this.marks, this.frequency);
+        lm.fit(start);
+        if(!lm.getConvergence() && !this.quiet){
+            System.out.println("Maximum iteration number, " + lm.getNiter() + ", reached in Levenberg-Marquardt fit without the convergence criterion being satisfied");
+        }
+
+        double[] bestEstimates = lm.getBestEstimates();
+        this.meanFit = bestEstimates[0];
+        this.standardDeviationFit = bestEstimates[1];
+        this.scaleConstantFit = bestEstimates[2];
+        double[] errors = lm.getBestEstimatesErrors();
+        this.meanFitError = errors[0];
+        this.standardDeviationFitError = errors[1];
+
+        this.calculatedFrequency = lm.getYcalc();
+        this.residuals = lm.getResiduals();
+        this.nIterations = lm.getNiter();
+        this.nEvaluations = lm.getNevaluations();
+        this.converged = lm.getConvergence();
+    }
+
+    // Closed-form log-parabola fit to the histogram bins (see LogParabola): one weighted linear least
+    // squares solve, and one more for each reweighting pass, in place of the simplex; the number of
+    // solves is recorded as both the iterations and the evaluations
+    private void performLogParabola(){
+        LogParabola lp = LogParabola.fit(this.marks, this.frequency, this.reweight);
+        if(lp==null)throw new IllegalArgumentException("the histogram counts do not fit a log-parabola: fewer than three bins have counts or they do not curve downwards");
+        this.meanFit = lp.getMu();
+        this.standardDeviationFit = lp.getSigma();
+        this.scaleConstantFit = lp.getScale();
+
+        this.calculatedFrequency = new double[this.nBins];
+        this.residuals = new double[this.nBins];
+        for(int i=0; i<this.nBins; i++){
+            this.calculatedFrequency[i] = lp.function(this.marks[i]);
+            this.residuals[i] = this.frequency[i] - this.calculatedFrequency[i];
+        }
+        this.nIterations = lp.getIterations();
+        this.nEvaluations = lp.getIterations();
+    }
+
+    // Closed-form maximum likelihood fit: for a Gaussian the best estimates of mu and sigma are the
+    // mean and standard deviation of the marks, so no binning or iterative optimisation is needed
+    // sigma uses the n - 1 denominator of statistics(1); standard errors are sigma/sqrt(n) and sigma/sqrt(2(n - 1))
+    private void maximumLikelihood(){
+        int n = this.numberPresent;
+        this.moments = Moments.of(this.examMarks, 0, n);
+        double mean = this.moments.mean();
+        double sd = this.moments.standardDeviation();
+
+        this.meanCalc = mean;
+        this.meanUsed = mean;
+        this.standardDeviationCalc = sd;
+        this.standardDeviationUsed = sd;
+        this.meanFit = mean;
+        this.standardDeviationFit = sd;
+        this.meanFitError = sd/Math.sqrt(n);
+        this.standardDeviationFitError = sd/Math.sqrt(2.0*(n - 1));
     }
 
     // Output methods
@@ -670,11 +887,14 @@ public class GaussianFit2{
 
 
         // Probability plot analysis
+        // OrderStatistics gives ProbabilityPlot's results: R is r squared, the gradient and intercept are
+        // against the medians for mu and sigma, near 1 and 0, and the errors are those for unit weights.
+        // GaussianProbabilityPlotOutput.txt is no longer written.
         fout.println("PROBABILITY PLOT ANALYSIS");
         fout.println();
-        double rr = this.probPlot.gaussianCorrelationCoefficient();
+        double rr = this.orderStatistics.gaussianCorrelationCoefficient();
         fout.println("Correlation coefficient: R = " + Fmath.truncate(rr, this.trunc) + "     R squared = " + Fmath.truncate(rr*rr, this.trunc));
-        fout.println("Sum of squares of the residuals: " + Fmath.truncate(this.probPlot.gaussianSumOfSquares(), this.trunc));
+        fout.println("Sum of squares of the residuals: " + Fmath.truncate(this.orderStatistics.gaussianSumOfSquares(), this.trunc));
         fout.println();
 
         fout.printtab(" ", this.field);
@@ -687,14 +907,14 @@ public class GaussianFit2{
         fout.println("variation (%)");
 
         fout.printtab("Gradient", this.field);
-        double grad = this.probPlot.gaussianGradient();
-        double gradError = this.probPlot.gaussianGradientError();
+        double grad = this.orderStatistics.gaussianGradient();
+        double gradError = this.orderStatistics.gaussianGradientError();
         fout.printtab(Fmath.truncate(grad, this.trunc), this.field);
         fout.printtab(Fmath.truncate(gradError, this.trunc),this.field);
         fout.println(Fmath.truncate(Math.abs(gradError*100.0/grad), this.trunc));
 
-        double intr = this.probPlot.gaussianIntercept();
-        double intrError = this.probPlot.gaussianInterceptError();
+        double intr = this.orderStatistics.gaussianIntercept();
+        double intrError = this.orderStatistics.gaussianInterceptError();
         fout.printtab("Intercept", this.field);
         fout.printtab(Fmath.truncate(intr, this.trunc), this.field);
         fout.printtab(Fmath.truncate(intrError, this.trunc), this.field);
@@ -715,7 +935,7 @@ public class GaussianFit2{
         fout.printtab("t ", this.field);
         fout.println("P > |t|");
 
-        double muError = this.probPlot.gaussianMuError();
+        double muError = this.orderStatistics.gaussianMuError();
         fout.printtab("mu", this.field);
         fout.printtab(Fmath.truncate(this.meanProbPlot, this.trunc), this.field);
         fout.printtab(Fmath.truncate(muError, this.trunc), this.field);
@@ -725,7 +945,7 @@ public class GaussianFit2{
         double pVal =  1.0 - Stat.studentTcdf(-tVal, tVal, this.nBins-2);
         fout.println(Fmath.truncate(pVal, this.trunc));
 
-        double sigmaError = this.probPlot.gaussianSigmaError();
+        double sigmaError = this.orderStatistics.gaussianSigmaError();
         fout.printtab("sigma", this.field);
         fout.printtab(Fmath.truncate(this.standardDeviationProbPlot, this.trunc), this.field);
         fout.printtab(Fmath.truncate(sigmaError, this.trunc), this.field);
@@ -766,8 +986,8 @@ public class GaussianFit2{
         fout.printtab("medians", this.field);
         fout.println();
 
-        double[] odv = this.probPlot.gaussianOrderStatisticMedians();
-        double[] oda = this.probPlot.orderedData();
+        double[] odv = this.orderStatistics.gaussianOrderStatisticMedians();
+        double[] oda = this.orderStatistics.orderedData();
         int ii = 0;
         for(int i=0; i<this.numberPresent; i++){
             if(ii<2){
@@ -859,7 +1079,7 @@ public class GaussianFit2{
         fout.println();
 
         fout.println("Binned marks");
-        fout.println("Bin width: " + this.binWidth);
+        fout.println("Bin width: " + this.binWidth + " (bin rule: " + this.binRule.getRule() + ", at most " + this.binRule.getMaxBins() + " bins)");
         fout.printtab("Bin", this.field);
         fout.printtab("Experimental", this.field);
         fout.printtab("Calculated", this.field);
@@ -959,30 +1179,280 @@ public class GaussianFit2{
 
 
 
-    // Main method
-    public static void main(String[] arg){
+    // Fit a request of the form {'observations':[...]} and return the {"mean": ..,"sigma": ..} reply
+    static String fit(String request){
+        return GaussianFit2.fit(request, false);
+    }
 
-         GaussianFit2 ftg = new GaussianFit2();
-        JSONObject obj = new JSONObject(arg[0]);
-        
+    // Fit a request and return its reply; an "id" in the request is echoed in the reply
+    // quiet = true suppresses the flanagan Regression messages so that stdout carries only replies
+    static String fit(String request, boolean quiet){
+        return GaussianFit2.fit(request, quiet, true);
+    }
+
+    // Fit a request as above; files = false refuses a "file" key, for requests from FitServer's clients
+    static String fit(String request, boolean quiet, boolean files){
+        JSONObject options = new JSONObject();
+        double[] observations = GaussianFit2.observations(request, options, files);
+        return GaussianFit2.fit(observations, options, quiet);
+    }
+
+    // Observations of a request: its "observations" array, or the contents of the binary
+    // observation file named by its "file" key; every other key and value is put into options
+    static double[] observations(String request, JSONObject options){
+        return GaussianFit2.observations(request, options, true);
+    }
+
+    // Observations of a request as above, refusing a "file" key unless files is true
+    // The server passes false: a client may not have a path on the server's host opened, nor learn whether it exists
+    static double[] observations(String request, JSONObject options, boolean files){
+        double[] observations = ObservationReader.read(request, options);
+        if(!files && options.has("file"))throw new IllegalArgumentException("\"file\" is only read from the command line and --batch: send the observations");
+        if(observations!=null)return observations;
+        if(!options.has("file"))throw new JSONException("JSONObject[\"observations\"] not found.");
+
+        String fileName = options.getString("file");
+        try{
+            ObservationFile file = ObservationFile.read(fileName);
+            if(!options.has("title"))options.put("title", file.getTitle());
+            return file.getObservations();
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Fit the observations with the request options, i.e. every request key other than "observations"
+    // Each call uses its own instance, so concurrent calls do not share any state
+    static String fit(double[] observations, JSONObject request, boolean quiet){
+        return GaussianFit2.fitResult(observations, request, quiet).toString();
+    }
 
-        JSONArray observations = obj.getJSONArray("observations");
+    // Fit an observations array as fit(double[], JSONObject, boolean), returning the result rather than the reply line
+    // Each call works on its own GaussianFit2, so calls may run concurrently on different threads
+    // A dataset fitted before with the same options is answered from FitCache.SHARED or, if one is set, FitStore.SHARED
+    static FitResult fitResult(double[] observations, JSONObject request, boolean quiet){
+        // Observations appended to an incremental dataset are only part of it: its key is known after the fit
+        if(request.has("append") && !request.optBoolean("incremental", false))throw new IllegalArgumentException("appended observations need \"incremental\": true");
+        boolean append = request.has("append");
+        boolean counts = request.optBoolean("counts", false) || request.optString("analysis", "fit").equals("full");
+        boolean cacheable = (FitCache.SHARED.isEnabled() || FitStore.SHARED!=null) && FitCache.cacheable(request);
+        ObservationHash.Digest key = null;
+        if(cacheable && !append){
+            key = FitCache.key(observations, request);
+            FitResult cached = FitCache.SHARED.get(key);
+            if(cached!=null)return cached.withId(request.opt("id"));
+            cached = GaussianFit2.storedResult(key, request.opt("id"));
+            if(cached!=null){
+                FitCache.SHARED.put(key, cached);
+                return cached;
+            }
+        }
 
-         ftg.examMarks = new double[observations.length()];
-         ftg.numberPresent=observations.length();
+        // Incremental fit: only the observations appended to a dataset fitted before are counted
+        if(request.optBoolean("incremental", false)){
+            if(!request.optString("method", "simplex").equals("simplex"))throw new IllegalArgumentException("incremental fits use the simplex method");
+            IncrementalFit state = append ? IncrementalFits.SHARED.append(observations, request, quiet) : IncrementalFits.SHARED.fit(observations, request, quiet);
+            FitResult result = state.result(request.opt("id"));
+            if(!counts)result = result.withoutCounts();
+            if(append && cacheable)key = state.key();
+            if(key!=null){
+                FitCache.SHARED.put(key, result);
+                GaussianFit2.storeResult(key, result);
+            }
+            return result;
+        }
 
-        for (int i = 0; i < observations.length(); i++){
-                double observation = Double.parseDouble(observations.get(i).toString());
-               // System.out.println(observation);
-                ftg.examMarks[i]=observation;
-               
+         GaussianFit2 ftg = new GaussianFit2();
+         ftg.quiet = quiet;
+         ftg.examMarks = observations;
+         ftg.numberPresent = observations.length;
+         ftg.title = request.optString("title", null);
+         ftg.inputFileName = request.optString("file", null);
+         ftg.parallelThreshold = request.optInt("parallelThreshold", ParallelStatistics.DEFAULT_THRESHOLD);
+         ftg.binRule = BinRule.fromRequest(request);
+         ftg.start = request.optString("start", "moments");
+         if(!ftg.start.equals("moments") && !ftg.start.equals("logparabola") && !ftg.start.equals("peak"))throw new IllegalArgumentException("unknown simplex start: " + ftg.start);
+         ftg.reweight = request.optInt("reweight", LogParabola.DEFAULT_REWEIGHT);
+         ftg.errorStatistics = request.optString("analysis", "fit").equals("full");
+         if(request.optString("quantiles", "exact").equals("sketch")){
+             // The full analysis reports the exact quartiles and plots every ordered mark, so it sorts them anyway
+             if(ftg.errorStatistics)throw new IllegalArgumentException("\"quantiles\": \"sketch\" cannot be used with \"analysis\": \"full\", which sorts the marks");
+             ftg.sketchSize = request.optInt("sketchSize", QuantileSketch.DEFAULT_K);
+         }
+
+        // Fitting method: "simplex" (default) non-linear regression over the histogram bins
+        //                 "lm"      Levenberg-Marquardt regression over the histogram bins
+        //                 "logparabola" closed-form log-parabola fit to the histogram bins (see LogParabola),
+        //                           with "reweight" passes of Guo's iterative reweighting (default LogParabola.DEFAULT_REWEIGHT, 5)
+        //                 "mle"     closed-form maximum likelihood estimates from the marks
+        //                 "em"      mixture of Gaussians by expectation-maximisation over the marks (see GaussianMixture)
+        // "incremental": true fits by the simplex over fixed bins, refitting from an earlier prefix (see IncrementalFit);
+        //                 with "append": n the request sends only the observations appended to the n of its "id" (see IncrementalFits)
+        // The histogram bins are chosen by "bins", "binWidth", "binCount" and "maxBins" (see BinRule)
+        // "start": "moments" (default), "logparabola" or "peak" chooses the initial estimates of the "simplex"
+        //                 and "lm" methods (see initialEstimates()), a log-parabola start also taking "reweight";
+        // "counts": true, or "analysis": "full", adds the iterations and evaluations of the fitting method to the reply;
+        //                 a regression stopped at its iteration limit without converging is always marked "converged": false
+        // "quantiles": "sketch" estimates the median and quartile skewness, and the interquartile range of the "fd" bin rule,
+        //                 with a QuantileSketch of size "sketchSize"; it is refused with "analysis": "full"
+        // "analysis": "full" adds the probability plot and the order statistics of the marks to the result of
+        //                 the "simplex", "lm", "logparabola" and "mle" methods (see analysis()), and the standard errors of
+        //                 the simplex best estimates; otherwise the simplex skips its error statistics
+        String method = request.optString("method", "simplex");
+        boolean full = request.optString("analysis", "fit").equals("full");
+        GaussianMixture mixture = null;
+        if(method.equals("mle")){
+            if(full){
+                ftg.statistics(1);
+                ftg.probabilityPlot();
             }
+            ftg.maximumLikelihood();
+        }
+        else if(method.equals("em")){
+            mixture = GaussianMixture.fit(observations, request);
+        }
+        else if(method.equals("lm")){
+            ftg.statistics(1);
+            if(full)ftg.probabilityPlot();
+            ftg.histogram();
+            ftg.performLevenbergMarquardt();
+        }
+        else if(method.equals("simplex")){
+            ftg.statistics(1);
+            if(full)ftg.probabilityPlot();
+            ftg.histogram();
+            ftg.performRegression();
+        }
+        else if(method.equals("logparabola")){
+            ftg.statistics(1);
+            if(full)ftg.probabilityPlot();
+            ftg.histogram();
+            ftg.performLogParabola();
+        }
+        else{
+            throw new IllegalArgumentException("unknown fitting method: " + method);
+        }
+
+        FitResult result = mixture!=null ? mixture.result(request.opt("id"), observations.length) : ftg.result(request.opt("id"));
+        if(full && mixture==null)result = result.withAnalysis(ftg.analysis());
+
+        // Plot data of the histogram and fit, only if requested with "plot": true
+        // It is returned with the result; no window is opened here, as the fit may be running in the server or a batch
+        if(request.optBoolean("plot", false) && ftg.calculatedFrequency!=null)result = result.withPlot(ftg.plotData());
+        if(!counts)result = result.withoutCounts();
+        if(key!=null){
+            FitCache.SHARED.put(key, result);
+            GaussianFit2.storeResult(key, result);
+        }
+        return result;
+    }
+
+    // Result for key from the persistent store, null if there is no store or no result
+    // A store that cannot be read is reported and the dataset fitted as usual
+    private static FitResult storedResult(ObservationHash.Digest key, Object id){
+        if(FitStore.SHARED==null)return null;
+        try{
+            return FitStore.SHARED.get(key, id);
+        }
+        catch(IOException e){
+            System.err.println("Fit store " + FitStore.SHARED.getFileName() + " not read: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Append a result to the persistent store, if there is one
+    private static void storeResult(ObservationHash.Digest key, FitResult result){
+        if(FitStore.SHARED==null)return;
+        try{
+            FitStore.SHARED.put(key, result);
+        }
+        catch(IOException e){
+            System.err.println("Fit store " + FitStore.SHARED.getFileName() + " not written: " + e.getMessage());
+        }
+    }
+
+    // Fit histogram bins built elsewhere, e.g. by SlidingGaussianFit, by the simplex regression
+    // mean and sd are those of the binned marks and seed the fit as in statistics(1)
+    static GaussianFit2 fitHistogram(double[] marks, double[] frequency, double binWidth, double mean, double sd, boolean quiet){
+        return GaussianFit2.fitHistogram(marks, frequency, binWidth, mean, sd, null, quiet);
+    }
 
-         ftg.statistics(1);
-        // ftg.probabilityPlot();
-         ftg.histogram();
+    // Fit histogram bins built elsewhere as above, starting the regression from start = {mu, sigma, Ao}
+    // if it is not null, e.g. the estimates of an earlier fit to most of the same observations
+    static GaussianFit2 fitHistogram(double[] marks, double[] frequency, double binWidth, double mean, double sd, double[] start, boolean quiet){
+        GaussianFit2 ftg = new GaussianFit2();
+        ftg.quiet = quiet;
+        ftg.warmStart = start;
+        ftg.meanCalc = mean;
+        ftg.meanUsed = mean;
+        ftg.standardDeviationCalc = sd;
+        ftg.standardDeviationUsed = sd;
+        ftg.histogram(marks, frequency, binWidth);
         ftg.performRegression();
-        System.out.println("{\"mean\": " + ftg.meanFit + ",\"sigma\": " + ftg.standardDeviationFit + "}");
+        return ftg;
+    }
+
+    // Statistics of a full analysis, as a JSON object: the order statistics of the marks, their
+    // moment, median and quartile skewness and excess kurtosis, and the probability plot estimates,
+    // with ProbabilityPlot's unit weight errors and its coefficient of determination
+    private String analysis(){
+        OrderStatistics order = this.orderStatistics();
+        return "{\"median\": " + order.median() + ",\"lowerQuartile\": " + order.lowerQuartile() + ",\"upperQuartile\": " + order.upperQuartile()
+               + ",\"momentSkewness\": " + this.momentSkewness + ",\"medianSkewness\": " + this.medianSkewness
+               + ",\"quartileSkewness\": " + this.quartileSkewness + ",\"excessKurtosis\": " + this.excessKurtosis
+               + ",\"probabilityPlot\": {\"mean\": " + this.meanProbPlot + ",\"sigma\": " + this.standardDeviationProbPlot
+               + ",\"meanError\": " + order.gaussianMuError() + ",\"sigmaError\": " + order.gaussianSigmaError()
+               + ",\"rSquared\": " + order.gaussianCorrelationCoefficient() + "}}";
+    }
+
+    // Immutable copy of the results of this fit
+    FitResult result(Object id){
+        FitResult result = new FitResult(id, this.meanFit, this.standardDeviationFit, this.meanFitError, this.standardDeviationFitError, this.nIterations, this.nEvaluations);
+        return this.converged ? result : result.unconverged();
+    }
+
+    // Main method
+    // USAGE:  GaussianFit2 "{'observations':[...]}"     fit one dataset and exit
+    //         GaussianFit2 --server [port]              keep a warm JVM serving fits on http://localhost:port/fit
+    //         GaussianFit2 --batch [file] [--threads n] [--unordered]
+    //                                                   fit one {"id":..,"observations":[...]} record per line
+    //                                                   read from the file, or from stdin if no file is given
+    //         GaussianFit2 --convert text-file binary-file
+    //                                                   convert a one-mark-per-line text file to a binary
+    //                                                   observation file, fitted with {'file':'binary-file'}
+    //         GaussianFit2 --statistics binary-file [sketchSize]
+    //                                                   moments, median and quartiles of a binary observation
+    //                                                   file of any size, streamed through a QuantileSketch
+    public static void main(String[] arg) throws Exception{
+
+        if(arg[0].equals("--server")){
+            int port = FitServer.DEFAULT_PORT;
+            if(arg.length>1)port = Integer.parseInt(arg[1]);
+            FitServer.start(port);
+            return;
+        }
+        if(arg[0].equals("--batch")){
+            FitBatch.main(Arrays.copyOfRange(arg, 1, arg.length));
+            return;
+        }
+        if(arg[0].equals("--statistics")){
+            int sketchSize = QuantileSketch.DEFAULT_K;
+            if(arg.length>2)sketchSize = Integer.parseInt(arg[2]);
+            System.out.println(ObservationFile.statistics(arg[1], sketchSize));
+            return;
+        }
+        if(arg[0].equals("--convert")){
+            long count = ObservationFile.convert(arg[1], arg[2]);
+            System.out.println(count + " observations written to " + arg[2]);
+            return;
+        }
+
+        // A single fit from the command line also shows its plot data in a window, if it has any and there is a display
+        JSONObject options = new JSONObject();
+        FitResult result = GaussianFit2.fitResult(GaussianFit2.observations(arg[0], options), options, false);
+        System.out.println(result);
+        if(result.getPlot()!=null && !java.awt.GraphicsEnvironment.isHeadless())GaussianFit2.plot(result, options);
        /*
         // Create instance of GaussianFit
         GaussianFit ftg = new GaussianFit();
@@ -1002,7 +1472,8 @@ public class GaussianFit2{
         // Distribute the data into histogram bins
         ftg.histogram();
 
-        // Perform Regression
+        // Perform Regression, with the error statistics reported by output()
+        ftg.errorStatistics = true;
         ftg.performRegression();
 
         // Output the analysis
@@ -1016,7 +1487,28 @@ public class GaussianFit2{
 
 // Class to evaluate the Gausian (normal) function y = (yscale/sd.sqrt(2.pi)).exp(-0.5[(x - xmean)/sd]^2).
 class GaussFunction implements RegressionFunction{
+    private static final double ROOT_TWO_PI = Math.sqrt(2.0D*Math.PI);
+
+    // Regression calls function once per bin with the same p, so the normalisation is kept between calls
+    private double sigma = Double.NaN;              // p[1] of the last call
+    private double scale = Double.NaN;              // p[2] of the last call
+    private double norm = Double.NaN;               // p[2]/(p[1].sqrt(2.pi)) for those values
+    private long calls = 0;                         // number of calls, one per bin per evaluation
+
     public double function(double[] p, double[] x){
-        return (p[2]/(p[1]*Math.sqrt(2.0D*Math.PI)))*Math.exp(-0.5D*Fmath.square((x[0]-p[0])/p[1]));
+        // A fit running as a FitPool task stops at the next evaluation once its task is cancelled
+        if(Thread.currentThread().isInterrupted())throw new CancellationException("fit cancelled");
+        this.calls++;
+        if(p[1]!=this.sigma || p[2]!=this.scale){
+            this.sigma = p[1];
+            this.scale = p[2];
+            this.norm = p[2]/(p[1]*ROOT_TWO_PI);
+        }
+        double z = (x[0] - p[0])/p[1];
+        return this.norm*Math.exp(-0.5D*z*z);
+    }
+
+    long getCalls(){
+        return this.calls;
     }
 }
@@ -465,9 +465,13 @@ public class GaussianFit2Graph{
 
         this.calculatedFrequency = this.reg.getYcalc();
         this.residuals = this.reg.getResiduals();
+    }
 
-        // Plot regression fit
-        double[][] data = PlotGraph.data(3, 200);
+    // Plot the histogram and the regression fit
+    // Only called when a graph is wanted: the interpolation and plot data are not needed for the fit itself
+    private void plot(){
+        // Plot data: the bins, 200 points interpolated on the fitted curve and the histogram outline
+        double[][] data = PlotGraph.data(3, Math.max(200, this.nBinPoints));
         CubicSpline cs = new CubicSpline(this.marks, this.calculatedFrequency);
         double[] xInterp = new double[200];
         double[] yInterp = new double[200];
@@ -488,7 +492,6 @@ public class GaussianFit2Graph{
             data[4][i] = this.binXpoints[i];
             data[5][i] = this.binYpoints[i];
         }
-        
         PlotGraph pg = new PlotGraph(data);
         int[] lopt = {0,3,3};
         pg.setLine(lopt);
@@ -499,7 +502,6 @@ public class GaussianFit2Graph{
         pg.setXaxisLegend("Marks");
         pg.setYaxisLegend("Frequency");
         pg.plot();
-        
     }
 
     // Output methods
@@ -982,6 +984,7 @@ public class GaussianFit2Graph{
         // ftg.probabilityPlot();
          ftg.histogram();
         ftg.performRegression();
+        ftg.plot();
         System.out.println("{\"mean\": " + ftg.meanFit + ",\"sigma\": " + ftg.standardDeviationFit + "}");
        /*
         // Create instance of GaussianFit
@@ -0,0 +1,299 @@
+/*
+*   Class:   GaussianMixture
+*
+*   USAGE:  Mixture of k Gaussians fitted to the marks themselves by expectation-maximisation
+*               f(x) = sum over j of w[j].(1/(sigma[j].sqrt(2.pi))).exp(-0.5[(x - mu[j])/sigma[j]]^2)
+*           GaussianFit2 fits a request with "method": "em" by fit(observations, request):
+*               "components"     number of components k, or "auto" (the default) to choose k from
+*                                1 to "maxComponents" (default DEFAULT_MAX_COMPONENTS) by the least
+*                                Bayesian information criterion BIC = (3k - 1).ln(n) - 2.ln(L)
+*               "tolerance"      iterations stop when the log-likelihood per mark rises by less than
+*                                this (default DEFAULT_TOLERANCE)
+*               "maxIterations"  iteration limit for each k (default DEFAULT_MAX_ITERATIONS)
+*
+*           The components start from the means and standard deviations of k equal slices of the
+*           sorted marks. Each iteration is one pass over the marks: the E-step responsibilities and
+*           the M-step sums of responsibility, r.x and r.x^2 of each component are accumulated together,
+*           in blocks of ParallelStatistics.LEAF_SIZE marks run as ForkJoinPool tasks and merged in a
+*           fixed order, so results do not depend on the number of threads.
+*
+*           A component that no mark is responsible for any more, its responsibilities all underflowing
+*           to zero, leaves no valid mixture of k components: the fit for that k fails, and "auto"
+*           chooses among the other k.
+*
+***************************************************************************************/
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.json.JSONObject;
+
+class GaussianMixture{
+
+    static final int DEFAULT_MAX_COMPONENTS = 4;    // default largest k tried by "components": "auto"
+    static final double DEFAULT_TOLERANCE = 1.0e-8; // default convergence tolerance, log-likelihood per mark
+    static final int DEFAULT_MAX_ITERATIONS = 500;  // default iteration limit for each k
+    static final double LOG_ROOT_TWO_PI = 0.5*Math.log(2.0*Math.PI);  // ln(sqrt(2.pi))
+
+    private final int k;                            // number of components
+    private final double[] weight;                  // component weights, summing to one
+    private final double[] mu;                      // component means
+    private final double[] sigma;                   // component standard deviations
+    private double logLikelihood = Double.NaN;      // log-likelihood of the marks
+    private int nIterations = 0;                    // number of EM iterations
+    private int nPasses = 0;                        // number of passes over the marks, including those for other k when chosen by BIC
+    private int emptied = -1;                       // component left with no responsibility, which fails the fit, -1 if none
+
+    private GaussianMixture(int k){
+        this.k = k;
+        this.weight = new double[k];
+        this.mu = new double[k];
+        this.sigma = new double[k];
+    }
+
+    // Fit the observations with the "components", "maxComponents", "tolerance" and "maxIterations" of a request
+    static GaussianMixture fit(double[] observations, JSONObject request){
+        double tolerance = request.optDouble("tolerance", DEFAULT_TOLERANCE);
+        int maxIterations = request.optInt("maxIterations", DEFAULT_MAX_ITERATIONS);
+        Object components = request.opt("components");
+        if(components==null || "auto".equals(components)){
+            return GaussianMixture.select(observations, request.optInt("maxComponents", DEFAULT_MAX_COMPONENTS), tolerance, maxIterations, ForkJoinPool.commonPool());
+        }
+        return GaussianMixture.fit(observations, request.getInt("components"), tolerance, maxIterations, ForkJoinPool.commonPool());
+    }
+
+    // Fit k = 1 to maxComponents components and return the fit of least BIC, among those that kept every component
+    static GaussianMixture select(double[] observations, int maxComponents, double tolerance, int maxIterations, ForkJoinPool pool){
+        if(maxComponents<1)throw new IllegalArgumentException("the maximum number of mixture components must be at least 1: " + maxComponents);
+        if(observations.length<2)throw new IllegalArgumentException("at least 2 observations are needed for 1 mixture component");
+        double[] sorted = GaussianMixture.sorted(observations);
+        GaussianMixture best = null;
+        int passes = 0;
+        for(int k=1; k<=maxComponents && 2*k<=observations.length; k++){
+            GaussianMixture mixture = GaussianMixture.fit(observations, sorted, k, tolerance, maxIterations, pool);
+            passes += mixture.nPasses;
+            if(mixture.emptied>=0)continue;
+            if(best==null || mixture.bic(observations.length)<best.bic(observations.length))best = mixture;
+        }
+        best.nPasses = passes;
+        return best;
+    }
+
+    // Fit k components
+    static GaussianMixture fit(double[] observations, int k, double tolerance, int maxIterations, ForkJoinPool pool){
+        GaussianMixture mixture = GaussianMixture.fit(observations, GaussianMixture.sorted(observations), k, tolerance, maxIterations, pool);
+        if(mixture.emptied>=0)throw new IllegalArgumentException("mixture component " + mixture.emptied + " of " + k + " was left with no marks: fit fewer components");
+        return mixture;
+    }
+
+    private static GaussianMixture fit(double[] observations, double[] sorted, int k, double tolerance, int maxIterations, ForkJoinPool pool){
+        int n = observations.length;
+        if(k<1)throw new IllegalArgumentException("the number of mixture components must be at least 1: " + k);
+        if(n<2*k)throw new IllegalArgumentException("at least " + 2*k + " observations are needed for " + k + " mixture components");
+        if(!(tolerance>=0.0))throw new IllegalArgumentException("the tolerance must not be negative: " + tolerance);
+
+        // Marks are shifted by their median so that the sums of r.x^2 do not lose the variances
+        // Variances are kept above a small fraction of that of all the marks, so a component cannot
+        // collapse onto a single mark
+        double shift = sorted[n/2];
+        double minVariance = 1.0e-10*GaussianMixture.variance(sorted, 0, n, shift);
+        if(!(minVariance>0.0))throw new IllegalArgumentException("the marks have no spread to fit a mixture to");
+
+        // Start from k equal slices of the sorted marks
+        GaussianMixture mixture = new GaussianMixture(k);
+        for(int j=0; j<k; j++){
+            int from = (int)((long)n*j/k);
+            int to = (int)((long)n*(j + 1)/k);
+            double mean = 0.0;
+            for(int i=from; i<to; i++)mean += sorted[i] - shift;
+            mean /= (to - from);
+            mixture.weight[j] = (double)(to - from)/n;
+            mixture.mu[j] = mean;
+            mixture.sigma[j] = Math.sqrt(Math.max(GaussianMixture.variance(sorted, from, to, mean + shift), minVariance));
+        }
+
+        double[] a = new double[k];
+        double[] b = new double[k];
+        double previous = Double.NEGATIVE_INFINITY;
+        while(true){
+            // E-step, with the M-step sums, for the current parameters
+            for(int j=0; j<k; j++){
+                a[j] = Math.log(mixture.weight[j]) - Math.log(mixture.sigma[j]) - LOG_ROOT_TWO_PI;
+                b[j] = -0.5/(mixture.sigma[j]*mixture.sigma[j]);
+            }
+            double[] s = pool.invoke(new StepTask(observations, 0, n, shift, mixture.mu, a, b));
+            mixture.nPasses++;
+            mixture.logLikelihood = s[3*k];
+            if(mixture.nIterations>=maxIterations || mixture.logLikelihood - previous<=tolerance*n)break;
+            previous = mixture.logLikelihood;
+
+            // M-step; a component with no responsibility left fails the fit rather than keeping stale parameters
+            for(int j=0; j<k; j++){
+                if(!(s[3*j]>0.0)){
+                    mixture.emptied = j;
+                    return mixture;
+                }
+            }
+            for(int j=0; j<k; j++){
+                double r = s[3*j];
+                double mean = s[3*j + 1]/r;
+                mixture.weight[j] = r/n;
+                mixture.mu[j] = mean;
+                mixture.sigma[j] = Math.sqrt(Math.max(s[3*j + 2]/r - mean*mean, minVariance));
+            }
+            mixture.nIterations++;
+        }
+        for(int j=0; j<k; j++)mixture.mu[j] += shift;
+        mixture.sortByMean();
+        return mixture;
+    }
+
+    // Sorted copy of the observations
+    private static double[] sorted(double[] observations){
+        double[] sorted = observations.clone();
+        Arrays.parallelSort(sorted);
+        return sorted;
+    }
+
+    // Variance, n denominator, of marks from to to-1 about mean
+    private static double variance(double[] marks, int from, int to, double mean){
+        double sum = 0.0;
+        double sum2 = 0.0;
+        for(int i=from; i<to; i++){
+            double dev = marks[i] - mean;
+            sum += dev;
+            sum2 += dev*dev;
+        }
+        int n = to - from;
+        return (sum2 - sum*sum/n)/n;
+    }
+
+    // Order the components by increasing mean
+    private void sortByMean(){
+        Integer[] order = new Integer[this.k];
+        for(int j=0; j<this.k; j++)order[j] = j;
+        Arrays.sort(order, (i, j) -> Double.compare(this.mu[i], this.mu[j]));
+        double[] weight = this.weight.clone();
+        double[] mu = this.mu.clone();
+        double[] sigma = this.sigma.clone();
+        for(int j=0; j<this.k; j++){
+            this.weight[j] = weight[order[j]];
+            this.mu[j] = mu[order[j]];
+            this.sigma[j] = sigma[order[j]];
+        }
+    }
+
+    // Bayesian information criterion for n marks
+    double bic(int n){
+        return (3*this.k - 1)*Math.log(n) - 2.0*this.logLikelihood;
+    }
+
+    // Mean of the mixture
+    double mean(){
+        double mean = 0.0;
+        for(int j=0; j<this.k; j++)mean += this.weight[j]*this.mu[j];
+        return mean;
+    }
+
+    // Standard deviation of the mixture
+    double standardDeviation(){
+        double mean = this.mean();
+        double var = 0.0;
+        for(int j=0; j<this.k; j++){
+            double dev = this.mu[j] - mean;
+            var += this.weight[j]*(this.sigma[j]*this.sigma[j] + dev*dev);
+        }
+        return Math.sqrt(var);
+    }
+
+    // Result of the fit: the mean and standard deviation of the whole mixture, and its components
+    FitResult result(Object id, int n){
+        double[][] components = new double[this.k][];
+        for(int j=0; j<this.k; j++)components[j] = new double[]{this.weight[j], this.mu[j], this.sigma[j]};
+        return FitResult.mixture(id, this.mean(), this.standardDeviation(), components, this.bic(n), this.nIterations, this.nPasses);
+    }
+
+    int getK(){
+        return this.k;
+    }
+
+    double[] getWeights(){
+        return this.weight.clone();
+    }
+
+    double[] getMeans(){
+        return this.mu.clone();
+    }
+
+    double[] getSigmas(){
+        return this.sigma.clone();
+    }
+
+    double getLogLikelihood(){
+        return this.logLikelihood;
+    }
+
+    int getIterations(){
+        return this.nIterations;
+    }
+
+    // One EM pass over a range of marks: for each component j the sums of the responsibilities r,
+    // of r.x and of r.x^2 at s[3j], s[3j+1] and s[3j+2], x being the shifted mark, and the
+    // log-likelihood of the marks at s[3k]
+    // The log density of component j at x is a[j] + b[j].(x - mu[j])^2
+    private static final class StepTask extends RecursiveTask<double[]>{
+        private static final long serialVersionUID = 1L;
+        private final double[] data;
+        private final int from, to;
+        private final double shift;
+        private final double[] mu, a, b;
+
+        StepTask(double[] data, int from, int to, double shift, double[] mu, double[] a, double[] b){
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.shift = shift;
+            this.mu = mu;
+            this.a = a;
+            this.b = b;
+        }
+
+        protected double[] compute(){
+            int k = this.mu.length;
+            if(this.to - this.from<=ParallelStatistics.LEAF_SIZE){
+                double[] s = new double[3*k + 1];
+                double[] logP = new double[k];
+                for(int i=this.from; i<this.to; i++){
+                    double x = this.data[i] - this.shift;
+                    double max = Double.NEGATIVE_INFINITY;
+                    for(int j=0; j<k; j++){
+                        double dev = x - this.mu[j];
+                        logP[j] = this.a[j] + this.b[j]*dev*dev;
+                        if(logP[j]>max)max = logP[j];
+                    }
+                    double sum = 0.0;
+                    for(int j=0; j<k; j++){
+                        logP[j] = Math.exp(logP[j] - max);
+                        sum += logP[j];
+                    }
+                    s[3*k] += max + Math.log(sum);
+                    for(int j=0; j<k; j++){
+                        double r = logP[j]/sum;
+                        s[3*j] += r;
+                        s[3*j + 1] += r*x;
+                        s[3*j + 2] += r*x*x;
+                    }
+                }
+                return s;
+            }
+            int mid = ParallelStatistics.split(this.from, this.to);
+            StepTask right = new StepTask(this.data, mid, this.to, this.shift, this.mu, this.a, this.b);
+            right.fork();
+            double[] left = new StepTask(this.data, this.from, mid, this.shift, this.mu, this.a, this.b).compute();
+            double[] r = right.join();
+            for(int i=0; i<left.length; i++)left[i] += r[i];
+            return left;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+*   Class:   IncrementalFit
+*
+*   USAGE:  Fit of a dataset that grows by appending observations, refitted from its previous state
+*           The state of a fit keeps the running ObservationHash of its observations, their moments
+*           (GaussianEstimator), their bin counts on a fixed grid of bins (BinCounts), and the best
+*           estimates of the fit, but not the observations themselves.
+*           extend() and append() count only the observations appended since, and start the simplex
+*           from the previous best estimates, so a refit costs O(appended observations + bins);
+*           IncrementalFits checks that the earlier observations are a prefix of a resent dataset,
+*           in one hash pass over that prefix, unless only the appended observations are sent.
+*
+*           BINS: the request's BinRule must be the "width" rule. Its "binWidth" (default BIN_WIDTH)
+*           is the width of the fixed grid, aligned on multiples of the width so that the bin of an
+*           observation never changes as others arrive, and its "maxBins" (default
+*           BinRule.DEFAULT_MAX_BINS) caps the span of the occupied bins: an observation that would
+*           spread them further is rejected. A fit without "incremental" instead lays its bins out
+*           from the smallest mark, of width range/round(range/binWidth), and widens them beyond
+*           maxBins bins. So the two differ in the placement of the bins, and their estimates differ
+*           by a fraction of the bin width: for width 0.1 and marks around 16 with sigma 0.3 to 0.4,
+*           by up to 0.008 in mu and 0.018 in sigma on 110 to 150 marks, and by 0.0015 and 0.0008
+*           on 20000 marks.
+*
+*           States are not changed once made: extend() returns a new state, so two requests that
+*           extend the same prefix differently each start from it.
+*           IncrementalFits holds the states of recent datasets, by id and by digest.
+*
+***************************************************************************************/
+
+class IncrementalFit{
+
+    static final double BIN_WIDTH = BinRule.DEFAULT_WIDTH;  // default histogram bin width, that of BinRule.DEFAULT
+
+    private final String options;                   // fit options of the requests, FitCache.fitOptions
+    private final ObservationHash hash;             // running hash of the observations
+    private final GaussianEstimator estimator;      // moments of the observations
+    private final BinCounts bins;                   // bin counts of the observations
+    private final double[] estimates;               // best estimates of mu, sigma and Ao, null if not fitted
+    private final FitResult result;                 // result of the fit, null if not fitted
+
+    // State of a dataset with no observations, binned by the "width" rule rule
+    IncrementalFit(String options, BinRule rule){
+        this(options, new ObservationHash(), new GaussianEstimator(), IncrementalFit.binCounts(rule), null, null);
+    }
+
+    private static BinCounts binCounts(BinRule rule){
+        if(!rule.getRule().equals("width"))throw new IllegalArgumentException("incremental fits use bins of a fixed width");
+        return new BinCounts(rule.getWidth(), rule.getMaxBins());
+    }
+
+    private IncrementalFit(String options, ObservationHash hash, GaussianEstimator estimator, BinCounts bins, double[] estimates, FitResult result){
+        this.options = options;
+        this.hash = hash;
+        this.estimator = estimator;
+        this.bins = bins;
+        this.estimates = estimates;
+        this.result = result;
+    }
+
+    // State of the dataset observations, whose first getCount() observations are those of this state,
+    // fitted by the simplex warm-started from this state's best estimates
+    IncrementalFit extend(double[] observations, Object id, boolean quiet){
+        int from = (int)this.getCount();
+        if(from==observations.length && this.result!=null)return this;
+        return this.extend(observations, from, id, quiet);
+    }
+
+    // State of this state's observations followed by appended, fitted as by extend()
+    IncrementalFit append(double[] appended, Object id, boolean quiet){
+        if(appended.length==0 && this.result!=null)return this;
+        return this.extend(appended, 0, id, quiet);
+    }
+
+    // State of this state's observations followed by observations[from] onwards
+    private IncrementalFit extend(double[] observations, int from, Object id, boolean quiet){
+        long before = this.getCount();
+        ObservationHash hash = this.hash.copy();
+        GaussianEstimator estimator = new GaussianEstimator();
+        estimator.merge(this.estimator);
+        BinCounts bins = this.bins.copy();
+        hash.update(observations, from, observations.length);
+        for(int i=from; i<observations.length; i++){
+            double x = observations[i];
+            if(Double.isNaN(x) || Double.isInfinite(x))throw new IllegalArgumentException("observation is not finite: " + x);
+            estimator.add(x);
+            bins.add(x);
+        }
+        if(estimator.getN()<3)throw new IllegalArgumentException("at least 3 observations are needed for a fit");
+
+        // Warm start: the area Ao grows in proportion to the number of observations
+        double[] start = null;
+        if(this.estimates!=null){
+            start = this.estimates.clone();
+            start[2] *= (double)estimator.getN()/before;
+        }
+        GaussianFit2 ftg = GaussianFit2.fitHistogram(bins.marks(), bins.frequencies(), bins.getBinWidth(), estimator.mean(), estimator.standardDeviation(), start, quiet);
+        double[] estimates = {ftg.meanFit, ftg.standardDeviationFit, ftg.scaleConstantFit};
+        return new IncrementalFit(this.options, hash, estimator, bins, estimates, ftg.result(id));
+    }
+
+    // Number of observations
+    long getCount(){
+        return this.hash.getCount();
+    }
+
+    // Digest of the observations, without options
+    ObservationHash.Digest digest(){
+        return this.hash.digest();
+    }
+
+    // FitCache key of the observations and options, as FitCache.key would give for the whole dataset
+    ObservationHash.Digest key(){
+        return this.hash.digest(this.options);
+    }
+
+    String getOptions(){
+        return this.options;
+    }
+
+    // Result of the last fit, for the given request id
+    FitResult result(Object id){
+        return this.result.withId(id);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+*   Class:   IncrementalFits
+*
+*   USAGE:  Recent IncrementalFit states, for requests that send a dataset again with observations appended
+*           GaussianFit2 fits a request with "incremental": true through the shared instance, which
+*           looks for the state of the longest earlier dataset with the same fit options whose
+*           observations are a prefix of the new ones, found by the request id or, failing that,
+*           by comparing prefix hashes, and extends it with the appended observations only.
+*           Prefix hashes are checked in one streaming pass over the observations, in order of length,
+*           so a dataset sent whole is still read whole once.
+*
+*           A request with "append": n sends only the observations appended to the dataset of its
+*           "id", whose earlier requests sent n observations; the state of the id keeps the running
+*           hash of those n, so nothing before the appended observations is sent or hashed again.
+*           "append": 0 starts a dataset. An id whose state has been dropped, or whose count is not
+*           n, is an error: the dataset must then be sent whole.
+*
+*           Up to maxSize states are kept, the least recently used being dropped first.
+*           The size of the shared instance is set with -Dgauss.incremental.size=n (default DEFAULT_SIZE).
+*
+***************************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+class IncrementalFits{
+
+    static final int DEFAULT_SIZE = 256;            // default maximum number of states of the shared instance
+
+    // Shared instance used by GaussianFit2
+    static final IncrementalFits SHARED = new IncrementalFits(Integer.getInteger("gauss.incremental.size", DEFAULT_SIZE));
+
+    private final LinkedHashMap<ObservationHash.Digest, IncrementalFit> byDigest;  // states by the digest of their observations
+    private final LinkedHashMap<Object, IncrementalFit> byId;                       // latest state of each request id
+    private long extended = 0;                      // number of fits that extended an earlier state
+    private long fitted = 0;                        // number of fits from no earlier state
+
+    IncrementalFits(int maxSize){
+        if(maxSize<1)throw new IllegalArgumentException("the number of incremental fit states must be at least 1: " + maxSize);
+        this.byDigest = IncrementalFits.lruMap(maxSize);
+        this.byId = IncrementalFits.lruMap(maxSize);
+    }
+
+    private static <K> LinkedHashMap<K, IncrementalFit> lruMap(final int maxSize){
+        return new LinkedHashMap<K, IncrementalFit>(16, 0.75f, true){
+            protected boolean removeEldestEntry(Map.Entry<K, IncrementalFit> eldest){
+                return size()>maxSize;
+            }
+        };
+    }
+
+    // Fit the observations of a request, extending the state of an earlier prefix of them if there is one
+    IncrementalFit fit(double[] observations, JSONObject request, boolean quiet){
+        String options = FitCache.fitOptions(request);
+        Object id = request.opt("id");
+        IncrementalFit previous = this.find(id, observations, options);
+        IncrementalFit next = null;
+        if(previous==null){
+            next = new IncrementalFit(options, BinRule.fromRequest(request)).extend(observations, id, quiet);
+        }
+        else{
+            next = previous.extend(observations, id, quiet);
+        }
+        this.record(id, previous, next);
+        return next;
+    }
+
+    // Fit the observations appended by a request with "append": n to the n observations of its id
+    IncrementalFit append(double[] appended, JSONObject request, boolean quiet){
+        String options = FitCache.fitOptions(request);
+        Object id = request.opt("id");
+        long count = request.getLong("append");
+        if(id==null)throw new IllegalArgumentException("appended observations need the \"id\" of their dataset");
+        IncrementalFit previous = null;
+        if(count>0){
+            synchronized(this){
+                previous = this.byId.get(id);
+                if(previous!=null)this.byDigest.get(previous.digest());    // mark as recently used
+            }
+            if(previous==null)throw new IllegalArgumentException("dataset " + id + " is not known: send it whole");
+            if(previous.getCount()!=count)throw new IllegalArgumentException("dataset " + id + " has " + previous.getCount() + " observations, not " + count + ": send it whole");
+            if(!previous.getOptions().equals(options))throw new IllegalArgumentException("dataset " + id + " was fitted with other options: send it whole");
+        }
+        else if(count<0){
+            throw new IllegalArgumentException("the number of observations appended to must not be negative: " + count);
+        }
+        IncrementalFit next = null;
+        if(previous==null){
+            next = new IncrementalFit(options, BinRule.fromRequest(request)).append(appended, id, quiet);
+        }
+        else{
+            next = previous.append(appended, id, quiet);
+        }
+        this.record(id, previous, next);
+        return next;
+    }
+
+    // Keep the state next, made from previous, or from no observations if previous is null
+    private synchronized void record(Object id, IncrementalFit previous, IncrementalFit next){
+        if(previous==null){
+            this.fitted++;
+        }
+        else{
+            this.extended++;
+        }
+        this.byDigest.put(next.digest(), next);
+        if(id!=null)this.byId.put(id, next);
+    }
+
+    // State of the longest known prefix of the observations with the same options, null if none
+    private IncrementalFit find(Object id, double[] observations, String options){
+        ArrayList<IncrementalFit> candidates = new ArrayList<IncrementalFit>();
+        synchronized(this){
+            if(id!=null && this.byId.containsKey(id))candidates.add(this.byId.get(id));
+            for(IncrementalFit state : this.byDigest.values())candidates.add(state);
+        }
+        candidates.sort(Comparator.comparingLong(IncrementalFit::getCount));
+
+        ObservationHash hash = new ObservationHash();
+        IncrementalFit found = null;
+        for(IncrementalFit state : candidates){
+            long count = state.getCount();
+            if(count>observations.length || !state.getOptions().equals(options))continue;
+            hash.update(observations, (int)hash.getCount(), (int)count);
+            if(hash.digest().equals(state.digest()))found = state;
+        }
+        if(found!=null){
+            synchronized(this){
+                this.byDigest.get(found.digest());      // mark as recently used
+            }
+        }
+        return found;
+    }
+
+    synchronized long getExtended(){
+        return this.extended;
+    }
+
+    synchronized long getFitted(){
+        return this.fitted;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+*   Class:   Moments
+*
+*   USAGE:  Count, sum, minimum, maximum and central moments up to the fourth of a set of marks,
+*           all from one pass over the array
+*           Each mark is read once and adds to the sums of the first four powers of its deviation
+*           from a shift, the first mark, which is close enough to the mean for the central
+*           moments to be recovered from these sums without cancellation for any realistic marks.
+*           The loop keeps two sets of deviation sums, for alternate marks, so that successive
+*           additions do not wait on each other, and allocates nothing. The sum of the marks is
+*           accumulated in order, as by Stat, so the mean is exactly Stat's.
+*
+*           Definitions are those of statistics(1), i.e. of flanagan.analysis.Stat:
+*               mean                sum/n
+*               standard deviation  sqrt(M2/(n - 1))
+*               moment skewness     (M3/(n - 1))/(M2/(n - 1))^1.5
+*               excess kurtosis     (M4/(n - 1))/(M2/(n - 1))^2 - 3
+*           where Mk is the sum of the k-th powers of the deviations from the mean.
+*
+*           GaussianFit2 computes one Moments in statistics() and shares it with histogram(),
+*           for the range of the marks, and with the maximum likelihood fit.
+*
+***************************************************************************************/
+
+final class Moments{
+
+    private final long n;                           // number of marks
+    private final double sum;                       // sum of the marks
+    private final double minimum;                   // minimum mark
+    private final double maximum;                   // maximum mark
+    private final double m2;                        // sum of squared deviations from the mean
+    private final double m3;                        // sum of cubed deviations from the mean
+    private final double m4;                        // sum of fourth powers of the deviations from the mean
+
+    private Moments(long n, double sum, double minimum, double maximum, double m2, double m3, double m4){
+        this.n = n;
+        this.sum = sum;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.m2 = m2;
+        this.m3 = m3;
+        this.m4 = m4;
+    }
+
+    // Moments of all the marks
+    static Moments of(double[] marks){
+        return Moments.of(marks, 0, marks.length);
+    }
+
+    // Moments of marks from to to-1
+    static Moments of(double[] marks, int from, int to){
+        int n = to - from;
+        if(n<1)throw new IllegalArgumentException("no marks to calculate moments of");
+        double shift = marks[from];
+        double sum = 0.0;
+        double s1A = 0.0, s2A = 0.0, s3A = 0.0, s4A = 0.0;
+        double s1B = 0.0, s2B = 0.0, s3B = 0.0, s4B = 0.0;
+        double min = marks[from];
+        double max = marks[from];
+        int i = from;
+        for(; i + 1<to; i+=2){
+            double a = marks[i];
+            double b = marks[i + 1];
+            if(a<min)min = a;
+            if(a>max)max = a;
+            if(b<min)min = b;
+            if(b>max)max = b;
+            double da = a - shift;
+            double db = b - shift;
+            double da2 = da*da;
+            double db2 = db*db;
+            sum += a;
+            sum += b;
+            s1A += da;
+            s1B += db;
+            s2A += da2;
+            s2B += db2;
+            s3A += da2*da;
+            s3B += db2*db;
+            s4A += da2*da2;
+            s4B += db2*db2;
+        }
+        if(i<to){
+            double a = marks[i];
+            if(a<min)min = a;
+            if(a>max)max = a;
+            double da = a - shift;
+            double da2 = da*da;
+            sum += a;
+            s1A += da;
+            s2A += da2;
+            s3A += da2*da;
+            s4A += da2*da2;
+        }
+        double s1 = s1A + s1B;
+        double s2 = s2A + s2B;
+        double s3 = s3A + s3B;
+        double s4 = s4A + s4B;
+
+        // Central sums from the sums about the shift: d is the mean less the shift
+        double d = s1/n;
+        double d2 = d*d;
+        double m2 = s2 - s1*d;
+        double m3 = s3 - 3.0*d*s2 + 3.0*d2*s1 - n*d2*d;
+        double m4 = s4 - 4.0*d*s3 + 6.0*d2*s2 - 4.0*d2*d*s1 + n*d2*d2;
+        return new Moments(n, sum, min, max, Math.max(m2, 0.0), m3, m4);
+    }
+
+    long getN(){
+        return this.n;
+    }
+
+    double getSum(){
+        return this.sum;
+    }
+
+    double getMinimum(){
+        return this.minimum;
+    }
+
+    double getMaximum(){
+        return this.maximum;
+    }
+
+    double mean(){
+        return this.sum/this.n;
+    }
+
+    // Variance, n - 1 denominator
+    double variance(){
+        return this.m2/(this.n - 1);
+    }
+
+    double standardDeviation(){
+        return Math.sqrt(this.variance());
+    }
+
+    double momentSkewness(){
+        double var = this.variance();
+        return (this.m3/(this.n - 1))/Math.pow(var, 1.5);
+    }
+
+    double excessKurtosis(){
+        double var = this.variance();
+        return (this.m4/(this.n - 1))/(var*var) - 3.0;
+    }
+}
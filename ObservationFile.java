@@ -0,0 +1,215 @@
+/*
+*   Class:   ObservationFile
+*
+*   USAGE:  Binary observation files for GaussianFit2
+*           Large datasets are read through a memory-mapped FileChannel instead of being parsed
+*           from JSON text. Fit a file by sending {'file':'marks.gobs'} in place of the
+*           observations array.
+*
+*           FORMAT (all values little-endian):
+*               4 bytes     magic "GOBS"
+*               int         format version, = 1
+*               long        number of observations, n
+*               int         title length in bytes, t
+*               t bytes     title, UTF-8
+*               0-7 bytes   padding to a multiple of 8 bytes
+*               n doubles   observations, IEEE-754
+*
+*           CONVERSION from the one-mark-per-line text format of GaussDataOne.txt
+*           (title on the first line, one mark per following line, non-numeric entries
+*           taken as absent and skipped):
+*
+*           java -cp .:flanagan.jar:json-20160212.jar GaussianFit2 --convert GaussDataOne.txt GaussDataOne.gobs
+*
+*           STATISTICS of a file too large to hold in memory, streamed through a QuantileSketch:
+*
+*           java -cp .:flanagan.jar:json-20160212.jar GaussianFit2 --statistics GaussDataOne.gobs [sketchSize]
+*
+***************************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+class ObservationFile{
+
+    private static final byte[] MAGIC = {'G', 'O', 'B', 'S'};  // file identifier
+    private static final int VERSION = 1;                       // format version
+    private static final long MAX_MAPPING = 1L<<30;             // bytes mapped at a time
+
+    private String title = null;                    // data title
+    private double[] observations = null;           // observations
+
+    private ObservationFile(String title, double[] observations){
+        this.title = title;
+        this.observations = observations;
+    }
+
+    // Read a binary observation file
+    // The observations are transferred from the mapped file straight into one double[]
+    static ObservationFile read(String fileName) throws IOException{
+        try(FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)){
+            Header header = ObservationFile.header(channel, fileName);
+            long count = header.count;
+            if(count>Integer.MAX_VALUE - 8)throw new IOException(fileName + ": " + count + " observations are too many to read into memory");
+
+            double[] observations = new double[(int)count];
+            int done = 0;
+            while(done<count){
+                int chunk = (int)Math.min(count - done, MAX_MAPPING/8);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, header.dataStart + 8L*done, 8L*chunk);
+                DoubleBuffer data = mapped.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                data.get(observations, done, chunk);
+                done += chunk;
+            }
+            return new ObservationFile(header.title, observations);
+        }
+    }
+
+    // Statistics of a binary observation file of any size, in one pass over the mapped file
+    // without holding the observations in memory: the moments by a GaussianEstimator, the median
+    // and quartiles estimated by a QuantileSketch of size sketchSize
+    // Returns {"n": ..,"mean": ..,"sd": ..,"momentSkewness": ..,"excessKurtosis": ..,"median": ..,
+    //          "lowerQuartile": ..,"upperQuartile": ..,"medianSkewness": ..,"quartileSkewness": ..,"rankError": ..}
+    static String statistics(String fileName, int sketchSize) throws IOException{
+        try(FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)){
+            Header header = ObservationFile.header(channel, fileName);
+            GaussianEstimator estimator = new GaussianEstimator();
+            QuantileSketch sketch = new QuantileSketch(sketchSize);
+            long done = 0;
+            while(done<header.count){
+                long chunk = Math.min(header.count - done, MAX_MAPPING/8);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, header.dataStart + 8L*done, 8L*chunk);
+                DoubleBuffer data = mapped.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                while(data.hasRemaining()){
+                    double mark = data.get();
+                    estimator.add(mark);
+                    sketch.add(mark);
+                }
+                done += chunk;
+            }
+            if(estimator.getN()<2)throw new IOException(fileName + ": at least 2 observations are needed for statistics");
+            double mean = estimator.mean();
+            double sd = estimator.standardDeviation();
+            double median = sketch.median();
+            return "{\"n\": " + estimator.getN() + ",\"mean\": " + mean + ",\"sd\": " + sd
+                   + ",\"momentSkewness\": " + estimator.momentSkewness() + ",\"excessKurtosis\": " + estimator.excessKurtosis()
+                   + ",\"median\": " + median + ",\"lowerQuartile\": " + sketch.quantile(0.25) + ",\"upperQuartile\": " + sketch.quantile(0.75)
+                   + ",\"medianSkewness\": " + 3.0*(mean - median)/sd + ",\"quartileSkewness\": " + sketch.quartileSkewness()
+                   + ",\"rankError\": " + sketch.getRankError() + "}";
+        }
+    }
+
+    // Header of a binary observation file: title, number of observations and offset of the first
+    private static Header header(FileChannel channel, String fileName) throws IOException{
+        long size = channel.size();
+        if(size<20)throw new IOException(fileName + " is not a binary observation file");
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, 1L<<16));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        for(int i=0; i<MAGIC.length; i++){
+            if(header.get()!=MAGIC[i])throw new IOException(fileName + " is not a binary observation file");
+        }
+        int version = header.getInt();
+        if(version!=VERSION)throw new IOException(fileName + ": unsupported binary observation file version " + version);
+        long count = header.getLong();
+        int titleLength = header.getInt();
+        if(titleLength<0 || titleLength>header.remaining())throw new IOException(fileName + ": corrupt title length " + titleLength);
+        byte[] titleBytes = new byte[titleLength];
+        header.get(titleBytes);
+        long dataStart = ObservationFile.dataStart(titleLength);
+        if(count<0 || count>(size - dataStart)/8){
+            throw new IOException(fileName + ": " + count + " observations do not fit in the file");
+        }
+        return new Header(new String(titleBytes, StandardCharsets.UTF_8), count, dataStart);
+    }
+
+    // Convert a text file, title on the first line and one mark per line, to a binary observation file
+    // Returns the number of observations written
+    static long convert(String textFileName, String binaryFileName) throws IOException{
+        Path binaryPath = Paths.get(binaryFileName);
+        try(BufferedReader in = new BufferedReader(new FileReader(textFileName, StandardCharsets.UTF_8));
+            FileChannel out = FileChannel.open(binaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+
+            String title = in.readLine();
+            if(title==null)title = "";
+            byte[] titleBytes = title.trim().getBytes(StandardCharsets.UTF_8);
+            long dataStart = ObservationFile.dataStart(titleBytes.length);
+
+            // Header, with the count filled in once all the marks have been written
+            ByteBuffer header = ByteBuffer.allocate((int)dataStart).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(0L);
+            header.putInt(titleBytes.length);
+            header.put(titleBytes);
+            header.position(0);
+            while(header.hasRemaining())out.write(header);
+
+            ByteBuffer buffer = ByteBuffer.allocate(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+            long count = 0;
+            String line = null;
+            while((line = in.readLine())!=null){
+                double mark = 0.0;
+                try{
+                    mark = Double.parseDouble(line.trim());
+                }
+                catch(NumberFormatException e){
+                    continue;
+                }
+                if(!buffer.hasRemaining()){
+                    buffer.flip();
+                    while(buffer.hasRemaining())out.write(buffer);
+                    buffer.clear();
+                }
+                buffer.putDouble(mark);
+                count++;
+            }
+            buffer.flip();
+            while(buffer.hasRemaining())out.write(buffer);
+
+            ByteBuffer countBuffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            countBuffer.putLong(count);
+            countBuffer.flip();
+            out.write(countBuffer, 8);
+            return count;
+        }
+    }
+
+    // Offset of the first observation: header and title padded to a multiple of 8 bytes
+    private static long dataStart(int titleLength){
+        long headerLength = MAGIC.length + 4 + 8 + 4 + titleLength;
+        return (headerLength + 7)/8*8;
+    }
+
+    // Data title
+    String getTitle(){
+        return this.title;
+    }
+
+    // Observations
+    double[] getObservations(){
+        return this.observations;
+    }
+
+    // Fields of a file header
+    private static final class Header{
+        private final String title;                 // data title
+        private final long count;                   // number of observations
+        private final long dataStart;               // offset of the first observation
+
+        Header(String title, long count, long dataStart){
+            this.title = title;
+            this.count = count;
+            this.dataStart = dataStart;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+*   Class:   ObservationHash
+*
+*   USAGE:  Streaming 128-bit hash of an observations array, MurmurHash3 x64_128 over the bits of each
+*           observation as a little-endian 8-byte word
+*           Observations are added one at a time or in runs, so the hash of an array can be carried
+*           forward as values are appended; digest() does not disturb the running state and
+*           copy() keeps the state of a prefix while the original is extended.
+*
+*           ObservationHash hash = new ObservationHash();
+*           hash.update(observations, 0, observations.length);
+*           ObservationHash.Digest key = hash.digest("method=\"lm\"");
+*
+***************************************************************************************/
+
+class ObservationHash{
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1 = 0L;                           // running hash, first half
+    private long h2 = 0L;                           // running hash, second half
+    private long pending = 0L;                      // first word of a block still waiting for its second
+    private boolean hasPending = false;             // = true if pending holds a word
+    private long count = 0L;                        // number of words hashed
+
+    // Hash of no observations
+    ObservationHash(){
+    }
+
+    // Copy of the running state of another hash
+    ObservationHash copy(){
+        ObservationHash copy = new ObservationHash();
+        copy.h1 = this.h1;
+        copy.h2 = this.h2;
+        copy.pending = this.pending;
+        copy.hasPending = this.hasPending;
+        copy.count = this.count;
+        return copy;
+    }
+
+    // Add one observation
+    void update(double x){
+        this.update(Double.doubleToLongBits(x));
+    }
+
+    // Add the observations x[from] to x[to-1]
+    void update(double[] x, int from, int to){
+        int i = from;
+        if(this.hasPending && i<to){
+            this.block(this.pending, Double.doubleToLongBits(x[i++]));
+            this.hasPending = false;
+        }
+        for(; i+1<to; i+=2){
+            this.block(Double.doubleToLongBits(x[i]), Double.doubleToLongBits(x[i+1]));
+        }
+        if(i<to){
+            this.pending = Double.doubleToLongBits(x[i]);
+            this.hasPending = true;
+        }
+        this.count += to - from;
+    }
+
+    // Number of observations hashed
+    long getCount(){
+        return this.count;
+    }
+
+    // Add one 8-byte word
+    private void update(long k){
+        if(this.hasPending){
+            this.block(this.pending, k);
+            this.hasPending = false;
+        }
+        else{
+            this.pending = k;
+            this.hasPending = true;
+        }
+        this.count++;
+    }
+
+    // Mix one 16-byte block
+    private void block(long k1, long k2){
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        this.h1 ^= k1;
+        this.h1 = Long.rotateLeft(this.h1, 27);
+        this.h1 += this.h2;
+        this.h1 = this.h1*5 + 0x52dce729;
+
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        this.h2 ^= k2;
+        this.h2 = Long.rotateLeft(this.h2, 31);
+        this.h2 += this.h1;
+        this.h2 = this.h2*5 + 0x38495ab5;
+    }
+
+    // Digest of the observations so far
+    Digest digest(){
+        return this.digest(null);
+    }
+
+    // Digest of the observations so far followed by the fit options, e.g. FitCache.fitOptions(request)
+    // The running state is left as it was, so more observations may be added afterwards
+    Digest digest(String options){
+        ObservationHash h = this;
+        if(options!=null){
+            h = this.copy();
+            h.update(0xffffffffffffffffL);          // separator: not the bits of any double from doubleToLongBits
+            h.update((long)options.length());
+            for(int i=0; i<options.length(); i++)h.update((long)options.charAt(i));
+        }
+        long h1 = h.h1;
+        long h2 = h.h2;
+        if(h.hasPending){
+            long k1 = h.pending;
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+        long length = 8L*h.count;
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = ObservationHash.fmix(h1);
+        h2 = ObservationHash.fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new Digest(h1, h2);
+    }
+
+    // MurmurHash3 64-bit finalisation mix
+    private static long fmix(long k){
+        k ^= k>>>33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k>>>33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k>>>33;
+        return k;
+    }
+
+    // 128-bit hash value
+    static final class Digest{
+        private final long high;                    // first 64 bits
+        private final long low;                     // second 64 bits
+
+        Digest(long high, long low){
+            this.high = high;
+            this.low = low;
+        }
+
+        long getHigh(){
+            return this.high;
+        }
+
+        long getLow(){
+            return this.low;
+        }
+
+        public boolean equals(Object o){
+            if(!(o instanceof Digest))return false;
+            Digest d = (Digest)o;
+            return this.high==d.high && this.low==d.low;
+        }
+
+        public int hashCode(){
+            return (int)(this.low ^ (this.low>>>32));
+        }
+
+        // 32 hexadecimal digits
+        public String toString(){
+            return String.format("%016x%016x", this.high, this.low);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+*   Class:   ObservationReader
+*
+*   USAGE:  Reads a request of the form {'observations':[...], ...} straight into a double[]
+*           The observations array is scanned character by character and each number is
+*           converted in place, so no JSONObject, JSONArray, boxed Double or per-element String
+*           is created for it. The array is grown geometrically and trimmed once at the end.
+*
+*           Keys and strings may be in double or single quotes, as in the requests sent today.
+*           Observations may also be quoted numbers, as accepted by the org.json path.
+*           Every other key is copied, with its value parsed by org.json, into an options object.
+*
+***************************************************************************************/
+
+import java.util.Arrays;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+class ObservationReader{
+
+    private static final String KEY = "observations";  // key of the observations array
+
+    // Exact powers of ten as doubles: 10^0 to 10^22
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static{
+        POWERS_OF_TEN[0] = 1.0;
+        for(int i=1; i<POWERS_OF_TEN.length; i++)POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1]*10.0;
+    }
+
+    private final String text;                      // request text
+    private int pos = 0;                            // current position in the text
+    private double[] values = new double[64];       // observations read so far
+    private int count = 0;                          // number of observations read so far
+
+    private ObservationReader(String text){
+        this.text = text;
+    }
+
+    // Read the observations array of a request; every other key and value is put into options
+    // Returns null if the request has no observations array
+    static double[] read(String text, JSONObject options){
+        ObservationReader reader = new ObservationReader(text);
+        boolean found = reader.readObject(options);
+        if(!found)return null;
+        return Arrays.copyOf(reader.values, reader.count);
+    }
+
+    // Top level object
+    private boolean readObject(JSONObject options){
+        boolean found = false;
+        this.expect('{');
+        if(this.peekClean()=='}'){
+            this.pos++;
+            return false;
+        }
+        while(true){
+            String key = this.readKey();
+            this.expect(':');
+            if(key.equals(KEY)){
+                if(found)throw this.syntaxError("Duplicate key \"" + KEY + "\"");
+                this.readObservations();
+                found = true;
+            }
+            else{
+                int start = this.skipValue();
+                options.put(key, new JSONTokener(this.text.substring(start, this.pos)).nextValue());
+            }
+            char c = this.nextClean();
+            if(c=='}')break;
+            if(c!=',')throw this.syntaxError("Expected a ',' or '}'");
+        }
+        if(this.peekClean()!=0)throw this.syntaxError("Unexpected text after the closing '}'");
+        return found;
+    }
+
+    // Object key, quoted or bare
+    private String readKey(){
+        char c = this.peekClean();
+        if(c=='"' || c=='\''){
+            int start = this.skipString();
+            return (String)new JSONTokener(this.text.substring(start, this.pos)).nextValue();
+        }
+        int start = this.pos;
+        while(this.pos<this.text.length() && this.text.charAt(this.pos)!=':' && !Character.isWhitespace(this.text.charAt(this.pos)))this.pos++;
+        if(start==this.pos)throw this.syntaxError("Expected a key");
+        return this.text.substring(start, this.pos);
+    }
+
+    // Observations array, converted straight into the values array
+    private void readObservations(){
+        this.expect('[');
+        if(this.peekClean()==']'){
+            this.pos++;
+            return;
+        }
+        while(true){
+            char c = this.peekClean();
+            double value = 0.0;
+            if(c=='"' || c=='\''){
+                this.pos++;
+                value = this.readNumber(c);
+                if(this.pos>=this.text.length() || this.text.charAt(this.pos)!=c)throw this.syntaxError("Unterminated number string");
+                this.pos++;
+            }
+            else{
+                value = this.readNumber((char)0);
+            }
+            if(this.count==this.values.length)this.values = Arrays.copyOf(this.values, 2*this.values.length);
+            this.values[this.count++] = value;
+
+            c = this.nextClean();
+            if(c==']')break;
+            if(c!=',')throw this.syntaxError("Expected a ',' or ']'");
+        }
+    }
+
+    // Number starting at the current position and ending at a delimiter
+    // Up to 15 significant digits with a decimal exponent of at most 22 are converted exactly
+    // from a long and a power of ten; anything else is passed to Double.parseDouble
+    private double readNumber(char quote){
+        String s = this.text;
+        int n = s.length();
+        int start = this.pos;
+        int i = start;
+        boolean negative = false;
+        if(i<n && (s.charAt(i)=='-' || s.charAt(i)=='+')){
+            negative = s.charAt(i)=='-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;                 // significant digits held in the mantissa
+        int exponent = 0;               // power of ten applied to the mantissa
+        boolean anyDigit = false;
+        boolean exact = true;
+        char c = 0;
+        while(i<n && (c = s.charAt(i))>='0' && c<='9'){
+            anyDigit = true;
+            if(mantissa!=0 || c!='0')digits++;
+            mantissa = 10*mantissa + (c - '0');
+            i++;
+        }
+        if(i<n && s.charAt(i)=='.'){
+            i++;
+            while(i<n && (c = s.charAt(i))>='0' && c<='9'){
+                anyDigit = true;
+                if(mantissa!=0 || c!='0')digits++;
+                mantissa = 10*mantissa + (c - '0');
+                exponent--;
+                i++;
+            }
+        }
+        if(anyDigit && i<n && (s.charAt(i)=='e' || s.charAt(i)=='E')){
+            i++;
+            boolean negativeExponent = false;
+            if(i<n && (s.charAt(i)=='-' || s.charAt(i)=='+')){
+                negativeExponent = s.charAt(i)=='-';
+                i++;
+            }
+            int e = 0;
+            boolean anyExponentDigit = false;
+            while(i<n && (c = s.charAt(i))>='0' && c<='9'){
+                anyExponentDigit = true;
+                if(e<100000)e = 10*e + (c - '0');
+                i++;
+            }
+            if(!anyExponentDigit)exact = false;
+            exponent += negativeExponent ? -e : e;
+        }
+
+        // Anything else up to the delimiter (NaN, Infinity, hexadecimal, ...) goes to Double.parseDouble
+        int end = i;
+        while(end<n && !ObservationReader.isDelimiter(s.charAt(end), quote))end++;
+        this.pos = end;
+        if(end==start)throw this.syntaxError("Expected a number");
+        if(end!=i || !anyDigit)exact = false;
+
+        if(exact && digits<=15 && exponent>=-22 && exponent<=22){
+            double value = (double)mantissa;
+            if(exponent<0){
+                value /= POWERS_OF_TEN[-exponent];
+            }
+            else{
+                value *= POWERS_OF_TEN[exponent];
+            }
+            return negative ? -value : value;
+        }
+        try{
+            return Double.parseDouble(s.substring(start, end));
+        }
+        catch(NumberFormatException e){
+            throw this.syntaxError("Invalid observation \"" + s.substring(start, end) + "\"");
+        }
+    }
+
+    // = true if c ends a number
+    private static boolean isDelimiter(char c, char quote){
+        if(quote!=0)return c==quote;
+        return c==',' || c==']' || c=='}' || Character.isWhitespace(c);
+    }
+
+    // Skip any value, returning its start position; strings and nested brackets are matched
+    private int skipValue(){
+        char c = this.peekClean();
+        int start = this.pos;
+        if(c=='"' || c=='\''){
+            return this.skipString();
+        }
+        if(c=='{' || c=='['){
+            int depth = 0;
+            while(this.pos<this.text.length()){
+                c = this.text.charAt(this.pos);
+                if(c=='"' || c=='\''){
+                    this.skipString();
+                    continue;
+                }
+                this.pos++;
+                if(c=='{' || c=='[')depth++;
+                if(c=='}' || c==']'){
+                    depth--;
+                    if(depth==0)return start;
+                }
+            }
+            throw this.syntaxError("Unterminated value");
+        }
+        while(this.pos<this.text.length() && !ObservationReader.isDelimiter(this.text.charAt(this.pos), (char)0))this.pos++;
+        if(start==this.pos)throw this.syntaxError("Expected a value");
+        return start;
+    }
+
+    // Skip a quoted string, including its quotes, returning its start position
+    private int skipString(){
+        int start = this.pos;
+        char quote = this.text.charAt(this.pos++);
+        while(this.pos<this.text.length()){
+            char c = this.text.charAt(this.pos++);
+            if(c=='\\'){
+                this.pos++;
+            }
+            else if(c==quote){
+                return start;
+            }
+        }
+        throw this.syntaxError("Unterminated string");
+    }
+
+    // Next non-white space character, without consuming it; 0 at the end of the text
+    private char peekClean(){
+        while(this.pos<this.text.length() && Character.isWhitespace(this.text.charAt(this.pos)))this.pos++;
+        if(this.pos>=this.text.length())return 0;
+        return this.text.charAt(this.pos);
+    }
+
+    // Next non-white space character, consumed
+    private char nextClean(){
+        char c = this.peekClean();
+        if(c!=0)this.pos++;
+        return c;
+    }
+
+    // Consume the expected character
+    private void expect(char expected){
+        if(this.nextClean()!=expected)throw this.syntaxError("Expected a '" + expected + "'");
+    }
+
+    private JSONException syntaxError(String message){
+        return new JSONException(message + " at character " + this.pos);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+*   Class:   OrderStatistics
+*
+*   USAGE:  One sorted copy of the marks, shared by every statistic that needs them in order:
+*           the median and median skewness, the quartiles and quartile skewness, the interquartile
+*           range of the Freedman-Diaconis bin rule and the Gaussian probability plot.
+*           The marks are sorted once, by Arrays.parallelSort from PARALLEL_SORT_THRESHOLD marks
+*           and by Arrays.sort below it. Stat and ProbabilityPlot each sorted their own copy, Stat
+*           by a selection sort, O(n^2).
+*
+*           Definitions are those of flanagan.analysis.Stat:
+*               median              middle mark, or mean of the two middle marks
+*               median skewness     3(mean - median)/standard deviation
+*               quartiles           medians of the lower and upper halves of the ordered marks,
+*                                   the median itself excluded when n is odd
+*               quartile skewness   (Q3 - 2.Q2 + Q1)/(Q3 - Q1), 1 if that is not a number
+*           except that the quartiles are taken from the halves of the ordered marks, where
+*           Stat.quartileSkewness takes the medians of the halves of the marks in entry order.
+*
+*           gaussianProbabilityPlot() fits the ordered marks to mu + sigma.m, m being the Gaussian
+*           order statistic medians of a standard normal distribution, by linear least squares,
+*           the minimum ProbabilityPlot.gaussianProbabilityPlot() searches for by the simplex;
+*           mu and sigma agree with its to about 1e-9. The other results follow ProbabilityPlot's
+*           definitions, so that the text report reads as it did:
+*               gradient, intercept the line fitted to the ordered marks against the order statistic
+*                                   medians for mu and sigma, mu + sigma.m, so close to 1 and 0
+*               errors              standard errors for unit weights, as ProbabilityPlot calculates
+*                                   them for marks given without weights: 1/sqrt(n) for mu, not
+*                                   scaled by the residual variance
+*               correlation coeff.  the coefficient of determination, r squared, which is what
+*                                   ProbabilityPlot.gaussianCorrelationCoefficient() returns
+*           ProbabilityPlot also wrote GaussianProbabilityPlotOutput.txt; nothing is written here.
+*
+***************************************************************************************/
+
+import java.util.Arrays;
+
+import flanagan.analysis.Stat;
+
+final class OrderStatistics{
+
+    static final int PARALLEL_SORT_THRESHOLD = 1<<16;   // number of marks from which Arrays.parallelSort is used
+
+    private final double[] sorted;                  // marks in increasing order
+    private final int n;                            // number of marks
+
+    private double[] orderMedians = null;           // standard Gaussian order statistic medians, once the probability plot is calculated
+    private double gaussianMu = Double.NaN;         // probability plot best estimate of mu
+    private double gaussianSigma = Double.NaN;      // probability plot best estimate of sigma
+    private double gaussianMuError = Double.NaN;    // standard error of gaussianMu
+    private double gaussianSigmaError = Double.NaN; // standard error of gaussianSigma
+    private double gaussianGradient = Double.NaN;   // gradient of the ordered marks against mu + sigma.m
+    private double gaussianGradientError = Double.NaN;  // standard error of gaussianGradient
+    private double gaussianIntercept = Double.NaN;  // intercept of the ordered marks against mu + sigma.m
+    private double gaussianInterceptError = Double.NaN; // standard error of gaussianIntercept
+    private double gaussianCorrCoeff = Double.NaN;  // coefficient of determination of the ordered marks and order statistic medians
+    private double gaussianSumOfSquares = Double.NaN;   // sum of squares of the probability plot residuals
+
+    private OrderStatistics(double[] sorted){
+        this.sorted = sorted;
+        this.n = sorted.length;
+    }
+
+    // Sorted copy of the first n marks
+    static OrderStatistics of(double[] marks, int n){
+        if(n<1)throw new IllegalArgumentException("no marks to order");
+        double[] sorted = Arrays.copyOf(marks, n);
+        if(n>=PARALLEL_SORT_THRESHOLD){
+            Arrays.parallelSort(sorted);
+        }
+        else{
+            Arrays.sort(sorted);
+        }
+        return new OrderStatistics(sorted);
+    }
+
+    // Median of the sorted marks from to to-1
+    private double median(int from, int to){
+        int m = to - from;
+        int half = from + m/2;
+        if(m%2==1)return this.sorted[half];
+        return (this.sorted[half - 1] + this.sorted[half])/2.0;
+    }
+
+    double median(){
+        return this.median(0, this.n);
+    }
+
+    // Lower quartile: median of the lower half of the ordered marks
+    double lowerQuartile(){
+        return this.median(0, this.n/2);
+    }
+
+    // Upper quartile: median of the upper half of the ordered marks
+    double upperQuartile(){
+        return this.median(this.n - this.n/2, this.n);
+    }
+
+    double interquartileRange(){
+        return this.upperQuartile() - this.lowerQuartile();
+    }
+
+    // Median skewness for the mean and standard deviation of the marks
+    double medianSkewness(double mean, double sd){
+        return 3.0*(mean - this.median())/sd;
+    }
+
+    double quartileSkewness(){
+        double q1 = this.lowerQuartile();
+        double q2 = this.median();
+        double q3 = this.upperQuartile();
+        double skew = (q3 - 2.0*q2 + q1)/(q3 - q1);
+        if(Double.isNaN(skew))skew = 1.0;
+        return skew;
+    }
+
+    // Gaussian probability plot: least squares fit of the ordered marks to mu + sigma.m
+    void gaussianProbabilityPlot(){
+        if(this.n<3)throw new IllegalArgumentException("There must be at least three data points - preferably considerably more");
+        this.orderMedians = Stat.gaussianOrderStatisticMedians(0.0, 1.0, this.n);
+        double mMean = 0.0;
+        double xMean = 0.0;
+        for(int i=0; i<this.n; i++){
+            mMean += this.orderMedians[i];
+            xMean += this.sorted[i];
+        }
+        mMean /= this.n;
+        xMean /= this.n;
+        double smm = 0.0;
+        double smx = 0.0;
+        double sxx = 0.0;
+        for(int i=0; i<this.n; i++){
+            double dm = this.orderMedians[i] - mMean;
+            double dx = this.sorted[i] - xMean;
+            smm += dm*dm;
+            smx += dm*dx;
+            sxx += dx*dx;
+        }
+        this.gaussianSigma = smx/smm;
+        this.gaussianMu = xMean - this.gaussianSigma*mMean;
+        double ss = 0.0;
+        for(int i=0; i<this.n; i++){
+            double r = this.sorted[i] - this.gaussianMu - this.gaussianSigma*this.orderMedians[i];
+            ss += r*r;
+        }
+        this.gaussianSumOfSquares = ss;
+
+        // Errors for unit weights, as ProbabilityPlot's, not scaled by the residual variance
+        this.gaussianSigmaError = Math.sqrt(1.0/smm);
+        this.gaussianMuError = Math.sqrt(1.0/this.n + mMean*mMean/smm);
+
+        // Line through the ordered marks against the medians mu + sigma.m, whose mean is fMean
+        double fMean = this.gaussianMu + this.gaussianSigma*mMean;
+        double sff = this.gaussianSigma*this.gaussianSigma*smm;
+        this.gaussianGradient = this.gaussianSigma*smx/sff;
+        this.gaussianIntercept = xMean - this.gaussianGradient*fMean;
+        this.gaussianGradientError = Math.sqrt(1.0/sff);
+        this.gaussianInterceptError = Math.sqrt(1.0/this.n + fMean*fMean/sff);
+
+        // ProbabilityPlot's correlation coefficient is r squared
+        this.gaussianCorrCoeff = smx*smx/(smm*sxx);
+    }
+
+    double gaussianMu(){
+        return this.gaussianMu;
+    }
+
+    double gaussianMuError(){
+        return this.gaussianMuError;
+    }
+
+    double gaussianSigma(){
+        return this.gaussianSigma;
+    }
+
+    double gaussianSigmaError(){
+        return this.gaussianSigmaError;
+    }
+
+    // Gradient and intercept of the probability plot line, ordered marks against the order statistic medians for mu and sigma
+    double gaussianGradient(){
+        return this.gaussianGradient;
+    }
+
+    double gaussianGradientError(){
+        return this.gaussianGradientError;
+    }
+
+    double gaussianIntercept(){
+        return this.gaussianIntercept;
+    }
+
+    double gaussianInterceptError(){
+        return this.gaussianInterceptError;
+    }
+
+    // Coefficient of determination, r squared, under ProbabilityPlot's name
+
+    double gaussianCorrelationCoefficient(){
+        return this.gaussianCorrCoeff;
+    }
+
+    double gaussianSumOfSquares(){
+        return this.gaussianSumOfSquares;
+    }
+
+    // Gaussian order statistic medians for the best estimates mu and sigma
+    double[] gaussianOrderStatisticMedians(){
+        if(this.orderMedians==null)return null;
+        double[] medians = new double[this.n];
+        for(int i=0; i<this.n; i++)medians[i] = this.gaussianMu + this.gaussianSigma*this.orderMedians[i];
+        return medians;
+    }
+
+    // Copy of the ordered marks
+    double[] orderedData(){
+        return this.sorted.clone();
+    }
+
+    int getN(){
+        return this.n;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+*   Class:   ParallelStatistics
+*
+*   USAGE:  Fork/join moments and histogram bin counts for very large sets of marks
+*           The marks are split into fixed blocks of LEAF_SIZE marks; each block is summed or binned
+*           as one ForkJoinPool task and the partial results are merged pairwise in a fixed order.
+*           The split depends only on the number of marks, never on the number of threads, and all
+*           sums are compensated (Neumaier), so results are identical whatever the parallelism.
+*
+*           GaussianFit2 switches to this path when the number of marks reaches its parallel
+*           threshold, set per request with "parallelThreshold" (default DEFAULT_THRESHOLD).
+*
+***************************************************************************************/
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+class ParallelStatistics{
+
+    static final int DEFAULT_THRESHOLD = 1<<20;     // default number of marks at which the parallel path is used
+    static final int LEAF_SIZE = 1<<14;             // marks per fork/join task
+
+    private final double[] data;                    // marks
+    private final int n;                            // number of marks
+    private final ForkJoinPool pool;                // pool running the tasks
+
+    private double mean = Double.NaN;               // mean
+    private double standardDeviation = Double.NaN;  // standard deviation, n - 1 denominator
+    private double momentSkewness = Double.NaN;     // moment skewness
+    private double excessKurtosis = Double.NaN;     // excess kurtosis
+    private double minimum = Double.NaN;            // minimum mark
+    private double maximum = Double.NaN;            // maximum mark
+
+    ParallelStatistics(double[] data){
+        this(data, ForkJoinPool.commonPool());
+    }
+
+    ParallelStatistics(double[] data, ForkJoinPool pool){
+        this.data = data;
+        this.n = data.length;
+        this.pool = pool;
+    }
+
+    // Calculate the mean, standard deviation, moment skewness, excess kurtosis, minimum and maximum
+    // Definitions are those of flanagan.analysis.Stat: all moments use an n - 1 denominator
+    void moments(){
+        // First pass: sum, minimum and maximum
+        double[] first = this.pool.invoke(new SumTask(this.data, 0, this.n));
+        this.mean = (first[0] + first[1])/this.n;
+        this.minimum = first[2];
+        this.maximum = first[3];
+
+        // Second pass: central sums of powers two to four, and of deviations to correct for rounding in the mean
+        double[] second = this.pool.invoke(new CentralTask(this.data, 0, this.n, this.mean));
+        double sumDev = second[0] + second[1];
+        double sum2 = second[2] + second[3] - sumDev*sumDev/this.n;
+        double sum3 = second[4] + second[5];
+        double sum4 = second[6] + second[7];
+
+        double var = sum2/(this.n - 1);
+        this.standardDeviation = Math.sqrt(var);
+        this.momentSkewness = (sum3/(this.n - 1))/Math.pow(var, 1.5);
+        this.excessKurtosis = (sum4/(this.n - 1))/(var*var) - 3.0;
+    }
+
+    // Count the marks into the histogram bins [binStart[i], binEnd[i]), as GaussianFit2.histogram()
+    // Returns the number of marks counted
+    int histogram(double min, double binWidth, double[] binStart, double[] binEnd, double[] frequency){
+        long[] counts = this.pool.invoke(new BinTask(this.data, 0, this.n, min, binWidth, binStart, binEnd));
+        int nBins = frequency.length;
+        for(int i=0; i<nBins; i++)frequency[i] = counts[i];
+        return (int)counts[nBins];
+    }
+
+    // Count the marks data[from] to data[to-1] into bins; counts[nBins] receives the number counted
+    // The bin index is calculated directly and then moved, if rounding requires it, onto the bin
+    // whose [binStart, binEnd) interval holds the mark
+    static void countBins(double[] data, int from, int to, double min, double binWidth, double[] binStart, double[] binEnd, long[] counts){
+        int last = binStart.length - 1;
+        long counted = 0;
+        for(int j=from; j<to; j++){
+            double mark = data[j];
+            int i = (int)((mark - min)/binWidth);
+            if(i<0)i = 0;
+            if(i>last)i = last;
+            while(i>0 && mark<binStart[i])i--;
+            while(i<last && mark>=binEnd[i])i++;
+            if(mark>=binStart[i] && mark<binEnd[i]){
+                counts[i]++;
+                counted++;
+            }
+        }
+        counts[last+1] += counted;
+    }
+
+    // Add a to the compensated sum held in s[k] (sum) and s[k+1] (compensation), Neumaier's algorithm
+    private static void add(double[] s, int k, double a){
+        double sum = s[k] + a;
+        if(Math.abs(s[k])>=Math.abs(a)){
+            s[k+1] += (s[k] - sum) + a;
+        }
+        else{
+            s[k+1] += (a - sum) + s[k];
+        }
+        s[k] = sum;
+    }
+
+    // Merge the compensated sum right[k], right[k+1] into left[k], left[k+1]
+    private static void merge(double[] left, double[] right, int k){
+        ParallelStatistics.add(left, k, right[k]);
+        left[k+1] += right[k+1];
+    }
+
+    // Split point of [from, to): a multiple of LEAF_SIZE, so the task tree depends only on the number of marks
+    static int split(int from, int to){
+        int blocks = (to - from + LEAF_SIZE - 1)/LEAF_SIZE;
+        return from + (blocks/2)*LEAF_SIZE;
+    }
+
+    // Sum, compensation, minimum and maximum of a range of marks
+    private static final class SumTask extends RecursiveTask<double[]>{
+        private static final long serialVersionUID = 1L;
+        private final double[] data;
+        private final int from, to;
+
+        SumTask(double[] data, int from, int to){
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected double[] compute(){
+            if(this.to - this.from<=LEAF_SIZE){
+                double[] s = {0.0, 0.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+                for(int j=this.from; j<this.to; j++){
+                    double mark = this.data[j];
+                    ParallelStatistics.add(s, 0, mark);
+                    if(mark<s[2])s[2] = mark;
+                    if(mark>s[3])s[3] = mark;
+                }
+                return s;
+            }
+            int mid = ParallelStatistics.split(this.from, this.to);
+            SumTask right = new SumTask(this.data, mid, this.to);
+            right.fork();
+            double[] left = new SumTask(this.data, this.from, mid).compute();
+            double[] r = right.join();
+            ParallelStatistics.merge(left, r, 0);
+            left[2] = Math.min(left[2], r[2]);
+            left[3] = Math.max(left[3], r[3]);
+            return left;
+        }
+    }
+
+    // Compensated sums of the deviations from the mean to the powers one to four of a range of marks
+    private static final class CentralTask extends RecursiveTask<double[]>{
+        private static final long serialVersionUID = 1L;
+        private final double[] data;
+        private final int from, to;
+        private final double mean;
+
+        CentralTask(double[] data, int from, int to, double mean){
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.mean = mean;
+        }
+
+        protected double[] compute(){
+            if(this.to - this.from<=LEAF_SIZE){
+                double[] s = new double[8];
+                for(int j=this.from; j<this.to; j++){
+                    double dev = this.data[j] - this.mean;
+                    double dev2 = dev*dev;
+                    ParallelStatistics.add(s, 0, dev);
+                    ParallelStatistics.add(s, 2, dev2);
+                    ParallelStatistics.add(s, 4, dev2*dev);
+                    ParallelStatistics.add(s, 6, dev2*dev2);
+                }
+                return s;
+            }
+            int mid = ParallelStatistics.split(this.from, this.to);
+            CentralTask right = new CentralTask(this.data, mid, this.to, this.mean);
+            right.fork();
+            double[] left = new CentralTask(this.data, this.from, mid, this.mean).compute();
+            double[] r = right.join();
+            for(int k=0; k<8; k+=2)ParallelStatistics.merge(left, r, k);
+            return left;
+        }
+    }
+
+    // Histogram bin counts of a range of marks, with the number counted in the final element
+    private static final class BinTask extends RecursiveTask<long[]>{
+        private static final long serialVersionUID = 1L;
+        private final double[] data;
+        private final int from, to;
+        private final double min, binWidth;
+        private final double[] binStart, binEnd;
+
+        BinTask(double[] data, int from, int to, double min, double binWidth, double[] binStart, double[] binEnd){
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.min = min;
+            this.binWidth = binWidth;
+            this.binStart = binStart;
+            this.binEnd = binEnd;
+        }
+
+        protected long[] compute(){
+            if(this.to - this.from<=LEAF_SIZE){
+                long[] counts = new long[this.binStart.length + 1];
+                ParallelStatistics.countBins(this.data, this.from, this.to, this.min, this.binWidth, this.binStart, this.binEnd, counts);
+                return counts;
+            }
+            int mid = ParallelStatistics.split(this.from, this.to);
+            BinTask right = new BinTask(this.data, mid, this.to, this.min, this.binWidth, this.binStart, this.binEnd);
+            right.fork();
+            long[] left = new BinTask(this.data, this.from, mid, this.min, this.binWidth, this.binStart, this.binEnd).compute();
+            long[] r = right.join();
+            for(int i=0; i<left.length; i++)left[i] += r[i];
+            return left;
+        }
+    }
+
+    double getMean(){
+        return this.mean;
+    }
+
+    double getStandardDeviation(){
+        return this.standardDeviation;
+    }
+
+    double getMomentSkewness(){
+        return this.momentSkewness;
+    }
+
+    double getExcessKurtosis(){
+        return this.excessKurtosis;
+    }
+
+    double getMinimum(){
+        return this.minimum;
+    }
+
+    double getMaximum(){
+        return this.maximum;
+    }
+}
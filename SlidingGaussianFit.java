@@ -0,0 +1,183 @@
+/*
+*   Class:   SlidingGaussianFit
+*
+*   USAGE:  Gaussian fit over a sliding window of time-ordered observations
+*           The window holds the last maxCount observations and/or the observations of the last
+*           maxAge milliseconds. Each add() admits one observation and evicts those that have left
+*           the window, updating both the running moments (GaussianEstimator) and the histogram
+*           bin counts in O(1), so mean() and standardDeviation() are always current.
+*
+*           The histogram uses a fixed grid of bins of width binWidth aligned on multiples of
+*           binWidth (BinCounts), so that an observation's bin never changes while it is in the window.
+*           The full GaussianFit2 simplex regression over the occupied bins is run only on demand,
+*           by refit(), or automatically every refitInterval observations if that is set.
+*
+*           SlidingGaussianFit window = new SlidingGaussianFit(1000, 0, 0.1);
+*           window.setRefitInterval(100);
+*           window.add(x, System.currentTimeMillis());
+*           double mu = window.fitMean();
+*
+***************************************************************************************/
+
+class SlidingGaussianFit{
+
+    private final int maxCount;                     // maximum number of observations in the window, 0 if unlimited
+    private final long maxAge;                      // maximum age in milliseconds of an observation in the window, 0 if unlimited
+
+    // Observations in the window, oldest first, in a ring buffer
+    private double[] values = new double[64];       // observations
+    private long[] times = new long[64];            // observation times in milliseconds
+    private long[] binOf = new long[64];            // bin number of each observation
+    private int head = 0;                           // index of the oldest observation
+    private int size = 0;                           // number of observations in the window
+
+    private final BinCounts bins;                   // histogram bin counts of the window
+    private final GaussianEstimator estimator = new GaussianEstimator();   // running moments of the window
+
+    private int refitInterval = 0;                  // observations between automatic refits, 0 for refits on demand only
+    private int sinceRefit = 0;                     // observations added since the last refit
+    private boolean quiet = true;                   // = true if flanagan Regression messages are to be suppressed
+
+    private double meanFit = Double.NaN;            // best estimate mean (mu) from the last refit
+    private double standardDeviationFit = Double.NaN;   // best estimate standard deviation (sigma) from the last refit
+
+    // maxCount observations and/or maxAge milliseconds (0 for no limit) in bins of width binWidth
+    SlidingGaussianFit(int maxCount, long maxAge, double binWidth){
+        if(maxCount<0 || maxAge<0)throw new IllegalArgumentException("window limits must not be negative");
+        if(maxCount==0 && maxAge==0)throw new IllegalArgumentException("a window needs a maximum count or a maximum age");
+        this.maxCount = maxCount;
+        this.maxAge = maxAge;
+        this.bins = new BinCounts(binWidth);
+    }
+
+    // Refit automatically every interval observations; 0 to refit only when refit() is called
+    void setRefitInterval(int interval){
+        this.refitInterval = interval;
+    }
+
+    // Show or suppress the flanagan Regression messages of the refits
+    void setQuiet(boolean quiet){
+        this.quiet = quiet;
+    }
+
+    // Add an observation without a time, for windows limited by count only
+    void add(double x){
+        if(this.maxAge>0)throw new IllegalStateException("observations in a time window need a time");
+        this.add(x, 0L);
+    }
+
+    // Add an observation made at time milliseconds; times must not decrease
+    // An observation the bin counts reject, one too far from the rest of the window (BinCounts), throws
+    // IllegalArgumentException and is not admitted; the observations it evicted stay evicted
+    void add(double x, long time){
+        if(Double.isNaN(x) || Double.isInfinite(x))throw new IllegalArgumentException("observation is not finite: " + x);
+
+        // Evict observations that leave the window
+        if(this.maxAge>0)this.evictBefore(time - this.maxAge);
+        if(this.maxCount>0 && this.size==this.maxCount)this.evictOldest();
+
+        // Admit the new observation
+        if(this.size==this.values.length)this.growWindow();
+        int tail = (this.head + this.size)%this.values.length;
+        this.values[tail] = x;
+        this.times[tail] = time;
+        this.binOf[tail] = this.bins.add(x);
+        this.size++;
+        this.estimator.add(x);
+
+        this.sinceRefit++;
+        if(this.refitInterval>0 && this.sinceRefit>=this.refitInterval)this.refit();
+    }
+
+    // Evict every observation made before time milliseconds
+    void evictBefore(long time){
+        while(this.size>0 && this.times[this.head]<time)this.evictOldest();
+    }
+
+    // Evict the oldest observation
+    private void evictOldest(){
+        double x = this.values[this.head];
+        long bin = this.binOf[this.head];
+        this.head = (this.head + 1)%this.values.length;
+        this.size--;
+        this.bins.remove(bin);
+        if(this.size==0){
+            this.estimator.clear();
+        }
+        else{
+            this.estimator.remove(x);
+        }
+    }
+
+    // Double the capacity of the window ring buffer
+    private void growWindow(){
+        int capacity = 2*this.values.length;
+        double[] values = new double[capacity];
+        long[] times = new long[capacity];
+        long[] binOf = new long[capacity];
+        for(int i=0; i<this.size; i++){
+            int j = (this.head + i)%this.values.length;
+            values[i] = this.values[j];
+            times[i] = this.times[j];
+            binOf[i] = this.binOf[j];
+        }
+        this.values = values;
+        this.times = times;
+        this.binOf = binOf;
+        this.head = 0;
+    }
+
+    // Run the simplex regression over the occupied bins of the current window
+    // The running moments are also recomputed from the window, so rounding does not build up over many evictions
+    void refit(){
+        this.sinceRefit = 0;
+        if(this.size<3)return;
+
+        this.estimator.clear();
+        for(int i=0; i<this.size; i++)this.estimator.add(this.values[(this.head + i)%this.values.length]);
+
+        GaussianFit2 ftg = GaussianFit2.fitHistogram(this.bins.marks(), this.bins.frequencies(), this.bins.getBinWidth(), this.estimator.mean(), this.estimator.standardDeviation(), this.quiet);
+        this.meanFit = ftg.meanFit;
+        this.standardDeviationFit = ftg.standardDeviationFit;
+    }
+
+    // Number of observations in the window
+    int size(){
+        return this.size;
+    }
+
+    // Mean of the observations in the window
+    double mean(){
+        return this.estimator.mean();
+    }
+
+    // Standard deviation of the observations in the window
+    double standardDeviation(){
+        return this.estimator.standardDeviation();
+    }
+
+    // Moment skewness of the observations in the window
+    double momentSkewness(){
+        return this.estimator.momentSkewness();
+    }
+
+    // Excess kurtosis of the observations in the window
+    double excessKurtosis(){
+        return this.estimator.excessKurtosis();
+    }
+
+    // Best estimate mean (mu) from the last refit, NaN before the first
+    double fitMean(){
+        return this.meanFit;
+    }
+
+    // Best estimate standard deviation (sigma) from the last refit, NaN before the first
+    double fitStandardDeviation(){
+        return this.standardDeviationFit;
+    }
+
+    // Current bin counts from the lowest to the highest occupied bin
+    long[] binCounts(){
+        return this.bins.counts();
+    }
+}
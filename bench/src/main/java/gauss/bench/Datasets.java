@@ -0,0 +1,59 @@
+/*
+*   Class:   Datasets
+*
+*   USAGE:  Synthetic sets of marks shaped like the requests sent to GaussianFit2.
+*
+*           narrow follows the recorded requests: marks from about 15 to 17.5 around a mean
+*           of 16.4 with a sigma of 0.4, i.e. a few dozen bins of width 0.1. wide has a mean of 50
+*           and a sigma of 10, so the fixed 0.1 bin width gives several hundred bins and the histogram
+*           and regression stages do proportionally more work.
+*
+***************************************************************************************/
+
+package gauss.bench;
+
+import java.util.Random;
+
+final class Datasets{
+
+    private static final long SEED = 0x6a09e667f3bcc908L; // fixed seed, so every fork and every run sees the same marks
+
+    private Datasets(){
+    }
+
+    static double[] marks(String shape, int n){
+        double mean;
+        double sigma;
+        switch(shape){
+            case "narrow":
+                mean = 16.4;
+                sigma = 0.4;
+                break;
+            case "wide":
+                mean = 50.0;
+                sigma = 10.0;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown shape: " + shape);
+        }
+        Random random = new Random(SEED);
+        double[] marks = new double[n];
+        for(int i=0; i<n; i++){
+            // Two decimal places, as in the recorded requests
+            marks[i] = Math.rint((mean + sigma*random.nextGaussian())*100.0)/100.0;
+        }
+        return marks;
+    }
+
+    // A request {'observations':[...]} holding the marks, in the single-quoted form sent today
+    static String request(double[] marks){
+        StringBuilder request = new StringBuilder(8*marks.length + 32);
+        request.append("{'observations':[");
+        for(int i=0; i<marks.length; i++){
+            if(i>0)request.append(',');
+            request.append(marks[i]);
+        }
+        request.append("]}");
+        return request.toString();
+    }
+}
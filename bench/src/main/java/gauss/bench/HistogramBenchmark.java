@@ -0,0 +1,89 @@
+/*
+*   Class:   HistogramBenchmark
+*
+*   USAGE:  Counting marks into histogram bins: the original loop over every bin and every mark,
+*           O(nBins x n), against the single pass of ParallelStatistics.countBins that histogram() uses
+*           now. Both count into the same bins, built as histogram() builds them.
+*
+***************************************************************************************/
+
+package gauss.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HistogramBenchmark{
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int n;
+
+    @Param({"narrow", "wide"})
+    public String shape;
+
+    private double[] marks;
+    private double min;
+    private double binWidth;
+    private double[] binStart;
+    private double[] binEnd;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        this.marks = Datasets.marks(this.shape, this.n);
+        this.min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for(double mark : this.marks){
+            this.min = Math.min(this.min, mark);
+            max = Math.max(max, mark);
+        }
+        int nBins = (int)Math.round((max - this.min)/0.1);
+        this.binWidth = (max - this.min)/nBins;
+        this.binStart = new double[nBins];
+        this.binEnd = new double[nBins];
+        this.binStart[0] = this.min;
+        this.binEnd[0] = this.min + this.binWidth;
+        for(int i=1; i<nBins; i++){
+            this.binStart[i] = this.binEnd[i - 1];
+            this.binEnd[i] = this.binStart[i] + this.binWidth;
+        }
+        this.binStart[0] *= 0.8;
+        this.binEnd[nBins - 1] *= 1.2;
+    }
+
+    // The loop histogram() ran before the single-pass counting
+    @Benchmark
+    public double[] nestedLoop(){
+        int nBins = this.binStart.length;
+        double[] frequency = new double[nBins];
+        for(int i=0; i<nBins; i++){
+            for(int j=0; j<this.marks.length; j++){
+                if(this.marks[j]>=this.binStart[i] && this.marks[j]<this.binEnd[i])frequency[i] += 1.0;
+            }
+        }
+        return frequency;
+    }
+
+    @Benchmark
+    public long[] countBins(){
+        long[] counts = new long[this.binStart.length + 1];
+        Pipeline.countBins(this.marks, this.min, this.binWidth, this.binStart, this.binEnd, counts);
+        return counts;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+*   Class:   Main
+*
+*   USAGE:  Runs the benchmarks named on the command line, or all of them, with the GC profiler attached,
+*           so every result carries its allocation rate (gc.alloc.rate.norm, bytes per operation) next to its time.
+*           Any other JMH command line option may be given as well.
+*
+***************************************************************************************/
+
+package gauss.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public final class Main{
+
+    private Main(){
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException{
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
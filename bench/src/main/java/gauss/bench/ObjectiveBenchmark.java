@@ -0,0 +1,105 @@
+/*
+*   Class:   ObjectiveBenchmark
+*
+*   USAGE:  One evaluation of the sum of squares over every bin: GaussFunction called once per bin, as
+*           flanagan's Regression calls it, against the bulk GaussObjective, scalar and Vector API.
+*           The Jacobian evaluations are those of each Levenberg-Marquardt iteration.
+*
+***************************************************************************************/
+
+package gauss.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class ObjectiveBenchmark{
+
+    @Param({"25", "100", "1000", "10000"})
+    public int bins;
+
+    private double[] p;
+    private double[] xData;
+    private double[] yData;
+    private double[][] xPoints;
+    private Object function;
+    private Object scalar;
+    private Object vector;
+    private double[] residual;
+    private double[] dMu;
+    private double[] dSigma;
+    private double[] dAo;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        // Bins of width 0.1 from the narrow marks, with a fit close to, but not at, the minimum
+        double[] marks = Datasets.marks("narrow", 100*this.bins);
+        double min = 16.4 - 0.05*this.bins;
+        this.xData = new double[this.bins];
+        this.yData = new double[this.bins];
+        this.xPoints = new double[this.bins][];
+        for(int i=0; i<this.bins; i++){
+            this.xData[i] = min + (i + 0.5)*0.1;
+            this.xPoints[i] = new double[]{this.xData[i]};
+        }
+        for(double mark : marks){
+            int i = (int)Math.floor((mark - min)/0.1);
+            if(i>=0 && i<this.bins)this.yData[i]++;
+        }
+        this.p = new double[]{16.41, 0.39, marks.length*0.1};
+        this.function = Pipeline.gaussFunction();
+        this.scalar = Pipeline.objective(this.xData, this.yData, false);
+        this.vector = Pipeline.objective(this.xData, this.yData, true);
+        this.residual = new double[this.bins];
+        this.dMu = new double[this.bins];
+        this.dSigma = new double[this.bins];
+        this.dAo = new double[this.bins];
+    }
+
+    @Benchmark
+    public double gaussFunctionPerBin(){
+        double ss = 0.0;
+        for(int i=0; i<this.bins; i++){
+            double r = this.yData[i] - Pipeline.gaussFunction(this.function, this.p, this.xPoints[i]);
+            ss += r*r;
+        }
+        return ss;
+    }
+
+    @Benchmark
+    public double scalarSumOfSquares(){
+        return Pipeline.sumOfSquares(this.scalar, this.p);
+    }
+
+    @Benchmark
+    public double vectorSumOfSquares(){
+        return Pipeline.sumOfSquares(this.vector, this.p);
+    }
+
+    @Benchmark
+    public double scalarJacobian(){
+        return Pipeline.jacobian(this.scalar, this.p, this.residual, this.dMu, this.dSigma, this.dAo);
+    }
+
+    @Benchmark
+    public double vectorJacobian(){
+        return Pipeline.jacobian(this.vector, this.p, this.residual, this.dMu, this.dSigma, this.dAo);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+*   Class:   ParallelBenchmark
+*
+*   USAGE:  ParallelStatistics moments and bin counts on pools of 1 to 8 threads, to find where the
+*           fork/join path pays off and so where GaussianFit2's parallel threshold should sit.
+*           Pool sizes above the number of processors only measure the scheduling overhead.
+*
+***************************************************************************************/
+
+package gauss.bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelBenchmark{
+
+    @Param({"100000", "1000000", "10000000"})
+    public int n;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private Object statistics;
+    private double min;
+    private double binWidth;
+    private double[] binStart;
+    private double[] binEnd;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        double[] marks = Datasets.marks("narrow", this.n);
+        this.pool = new ForkJoinPool(this.threads);
+        this.statistics = Pipeline.parallelStatistics(marks, this.pool);
+        Pipeline.parallelMoments(this.statistics);
+
+        double max = Double.NEGATIVE_INFINITY;
+        this.min = Double.POSITIVE_INFINITY;
+        for(double mark : marks){
+            this.min = Math.min(this.min, mark);
+            max = Math.max(max, mark);
+        }
+        int nBins = (int)Math.round((max - this.min)/0.1);
+        this.binWidth = (max - this.min)/nBins;
+        this.binStart = new double[nBins];
+        this.binEnd = new double[nBins];
+        for(int i=0; i<nBins; i++){
+            this.binStart[i] = this.min + i*this.binWidth;
+            this.binEnd[i] = this.binStart[i] + this.binWidth;
+        }
+        this.binStart[0] *= 0.8;
+        this.binEnd[nBins - 1] *= 1.2;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        this.pool.shutdown();
+    }
+
+    @Benchmark
+    public double moments(){
+        Pipeline.parallelMoments(this.statistics);
+        return Pipeline.parallelStandardDeviation(this.statistics);
+    }
+
+    @Benchmark
+    public int histogram(){
+        double[] frequency = new double[this.binStart.length];
+        return Pipeline.parallelHistogram(this.statistics, this.min, this.binWidth, this.binStart, this.binEnd, frequency);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+*   Class:   ParseBenchmark
+*
+*   USAGE:  Reading the observations of a request into a double[]: ObservationReader against the
+*           JSONObject/JSONArray path that GaussianFit2 used before it, which turned every element
+*           back into a String and parsed that with Double.parseDouble. Run with the GC profiler to
+*           compare the allocation per request as well as the time.
+*
+***************************************************************************************/
+
+package gauss.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark{
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int n;
+
+    private String request;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        this.request = Datasets.request(Datasets.marks("narrow", this.n));
+    }
+
+    @Benchmark
+    public double[] observationReader(){
+        return Pipeline.readObservations(this.request, new JSONObject());
+    }
+
+    // The loop GaussianFit2.main ran before ObservationReader
+    @Benchmark
+    public double[] orgJson(){
+        JSONObject obj = new JSONObject(this.request);
+        JSONArray observations = obj.getJSONArray("observations");
+        double[] marks = new double[observations.length()];
+        for(int i=0; i<observations.length(); i++){
+            double observation = Double.parseDouble(observations.get(i).toString());
+            marks[i] = observation;
+        }
+        return marks;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+*   Class:   Pipeline
+*
+*   USAGE:  Access to the GaussianFit2 pipeline stages.
+*
+*           GaussianFit2 and its helpers live in the unnamed package, which a named package cannot import,
+*           and JMH does not accept benchmarks in the unnamed package. The stages are therefore reached
+*           through method handles, held in static finals so that the JIT treats them as constants.
+*
+***************************************************************************************/
+
+package gauss.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+final class Pipeline{
+
+    private static final Class<?> FIT = load("GaussianFit2");
+    private static final Class<?> READER = load("ObservationReader");
+    private static final Class<?> PARALLEL = load("ParallelStatistics");
+    private static final Class<?> POOL = load("FitPool");
+    private static final Class<?> FUNCTION = load("GaussFunction");
+    private static final Class<?> OBJECTIVE = load("GaussObjective");
+
+    private static final MethodHandle NEW = constructor(FIT).asType(MethodType.methodType(Object.class));
+    private static final MethodHandle STATISTICS = method(FIT, "statistics", void.class, int.class);
+    private static final MethodHandle HISTOGRAM = method(FIT, "histogram", void.class);
+    private static final MethodHandle PERFORM_REGRESSION = method(FIT, "performRegression", void.class);
+    private static final MethodHandle PROBABILITY_PLOT = method(FIT, "probabilityPlot", void.class);
+    private static final MethodHandle OUTPUT_TEXT = method(FIT, "outputText", void.class);
+    private static final MethodHandle FIT_REQUEST = staticMethod(FIT, "fit", String.class, String.class, boolean.class);
+    private static final MethodHandle READ_OBSERVATIONS =
+            staticMethod(READER, "read", double[].class, String.class, org.json.JSONObject.class);
+    private static final MethodHandle NEW_PARALLEL = constructor(PARALLEL, double[].class, ForkJoinPool.class)
+            .asType(MethodType.methodType(Object.class, double[].class, ForkJoinPool.class));
+    private static final MethodHandle PARALLEL_MOMENTS = method(PARALLEL, "moments", void.class);
+    private static final MethodHandle PARALLEL_SD = method(PARALLEL, "getStandardDeviation", double.class);
+    private static final MethodHandle PARALLEL_HISTOGRAM = method(PARALLEL, "histogram", int.class,
+            double.class, double.class, double[].class, double[].class, double[].class);
+    private static final MethodHandle COUNT_BINS = staticMethod(PARALLEL, "countBins", void.class,
+            double[].class, int.class, int.class, double.class, double.class, double[].class, double[].class, long[].class);
+    private static final MethodHandle NEW_VIRTUAL_POOL = constructor(POOL).asType(MethodType.methodType(AutoCloseable.class));
+    private static final MethodHandle NEW_PLATFORM_POOL = constructor(POOL, int.class)
+            .asType(MethodType.methodType(AutoCloseable.class, int.class));
+    private static final MethodHandle FIT_ALL = method(POOL, "fitAll", List.class,
+            List.class, org.json.JSONObject.class, long.class, TimeUnit.class);
+    private static final MethodHandle NEW_FUNCTION = constructor(FUNCTION).asType(MethodType.methodType(Object.class));
+    private static final MethodHandle FUNCTION_VALUE = method(FUNCTION, "function", double.class, double[].class, double[].class);
+    private static final MethodHandle NEW_OBJECTIVE = constructor(OBJECTIVE, double[].class, double[].class)
+            .asType(MethodType.methodType(Object.class, double[].class, double[].class));
+    private static final MethodHandle CREATE_OBJECTIVE = staticMethod(OBJECTIVE, "create", OBJECTIVE, double[].class, double[].class)
+            .asType(MethodType.methodType(Object.class, double[].class, double[].class));
+    private static final MethodHandle IS_VECTORIZED = method(OBJECTIVE, "isVectorized", boolean.class);
+    private static final MethodHandle SUM_OF_SQUARES = method(OBJECTIVE, "sumOfSquares", double.class, double[].class);
+    private static final MethodHandle OBJECTIVE_JACOBIAN = method(OBJECTIVE, "jacobian", double.class,
+            double[].class, double[].class, double[].class, double[].class, double[].class);
+
+    private static final VarHandle EXAM_MARKS = field(FIT, "examMarks", double[].class);
+    private static final VarHandle NUMBER_PRESENT = field(FIT, "numberPresent", int.class);
+    private static final VarHandle OUTPUT_FILE_NAME = field(FIT, "outputFileName", String.class);
+    private static final VarHandle QUIET = field(FIT, "quiet", boolean.class);
+    private static final VarHandle MEAN_FIT = field(FIT, "meanFit", double.class);
+
+    private Pipeline(){
+    }
+
+    // A GaussianFit2 holding the given marks, with flanagan's messages suppressed
+    static Object newFit(double[] marks){
+        try{
+            Object fit = (Object)NEW.invokeExact();
+            EXAM_MARKS.set(fit, marks);
+            NUMBER_PRESENT.set(fit, marks.length);
+            QUIET.set(fit, true);
+            return fit;
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static void statistics(Object fit){
+        try{
+            STATISTICS.invokeExact(fit, 1);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    static void histogram(Object fit){
+        invoke(HISTOGRAM, fit);
+    }
+
+    static void performRegression(Object fit){
+        invoke(PERFORM_REGRESSION, fit);
+    }
+
+    static void probabilityPlot(Object fit){
+        invoke(PROBABILITY_PLOT, fit);
+    }
+
+    static void outputText(Object fit, String fileName){
+        OUTPUT_FILE_NAME.set(fit, fileName);
+        invoke(OUTPUT_TEXT, fit);
+    }
+
+    static double meanFit(Object fit){
+        return (double)MEAN_FIT.get(fit);
+    }
+
+    // GaussianFit2.fit(request, quiet = true): parse, fit and format one request
+    static String fit(String request){
+        try{
+            return (String)FIT_REQUEST.invokeExact(request, true);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // ObservationReader.read(request, options)
+    static double[] readObservations(String request, org.json.JSONObject options){
+        try{
+            return (double[]) READ_OBSERVATIONS.invokeExact(request, options);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // ParallelStatistics.countBins(...): the single-pass binning used by histogram()
+    static void countBins(double[] data, double min, double binWidth, double[] binStart, double[] binEnd, long[] counts){
+        try{
+            COUNT_BINS.invokeExact(data, 0, data.length, min, binWidth, binStart, binEnd, counts);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // A ParallelStatistics over the marks running on the given pool
+    static Object parallelStatistics(double[] marks, ForkJoinPool pool){
+        try{
+            return (Object)NEW_PARALLEL.invokeExact(marks, pool);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // ParallelStatistics.moments()
+    static void parallelMoments(Object statistics){
+        invoke(PARALLEL_MOMENTS, statistics);
+    }
+
+    // ParallelStatistics.getStandardDeviation()
+    static double parallelStandardDeviation(Object statistics){
+        try{
+            return (double)PARALLEL_SD.invokeExact(statistics);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // ParallelStatistics.histogram(...)
+    static int parallelHistogram(Object statistics, double min, double binWidth, double[] binStart, double[] binEnd,
+            double[] frequency){
+        try{
+            return (int)PARALLEL_HISTOGRAM.invokeExact(statistics, min, binWidth, binStart, binEnd, frequency);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // A FitPool: one virtual thread per fit if threads is 0, otherwise a pool of that many platform threads
+    static AutoCloseable fitPool(int threads){
+        try{
+            if(threads==0)return (AutoCloseable)NEW_VIRTUAL_POOL.invokeExact();
+            return (AutoCloseable)NEW_PLATFORM_POOL.invokeExact(threads);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // FitPool.fitAll(datasets, options, 0, SECONDS): fit every dataset with no timeout
+    static List<?> fitAll(Object pool, List<double[]> datasets, org.json.JSONObject options){
+        try{
+            return (List<?>)FIT_ALL.invokeExact(pool, (List)datasets, options, 0L, TimeUnit.SECONDS);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // A GaussFunction, the per-bin function that flanagan's Regression calls
+    static Object gaussFunction(){
+        try{
+            return (Object)NEW_FUNCTION.invokeExact();
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // GaussFunction.function(p, x)
+    static double gaussFunction(Object function, double[] p, double[] x){
+        try{
+            return (double)FUNCTION_VALUE.invokeExact(function, p, x);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // The scalar GaussObjective, or GaussObjective.create(...) if vector is true
+    static Object objective(double[] xData, double[] yData, boolean vector){
+        try{
+            Object objective = vector
+                    ? (Object)CREATE_OBJECTIVE.invokeExact(xData, yData)
+                    : (Object)NEW_OBJECTIVE.invokeExact(xData, yData);
+            if(vector && !(boolean)IS_VECTORIZED.invokeExact(objective)){
+                throw new IllegalStateException("the Vector API implementation is not available: run with --add-modules jdk.incubator.vector");
+            }
+            return objective;
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // GaussObjective.sumOfSquares(p)
+    static double sumOfSquares(Object objective, double[] p){
+        try{
+            return (double)SUM_OF_SQUARES.invokeExact(objective, p);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    // GaussObjective.jacobian(p, residual, dMu, dSigma, dAo)
+    static double jacobian(Object objective, double[] p, double[] residual, double[] dMu, double[] dSigma, double[] dAo){
+        try{
+            return (double)OBJECTIVE_JACOBIAN.invokeExact(objective, p, residual, dMu, dSigma, dAo);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    private static void invoke(MethodHandle handle, Object receiver){
+        try{
+            handle.invokeExact(receiver);
+        }
+        catch(Throwable t){
+            throw rethrow(t);
+        }
+    }
+
+    private static Class<?> load(String name){
+        try{
+            return Class.forName(name);
+        }
+        catch(ClassNotFoundException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> type){
+        try{
+            return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        }
+        catch(IllegalAccessException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameterTypes){
+        try{
+            return lookup(type).findConstructor(type, MethodType.methodType(void.class, parameterTypes));
+        }
+        catch(ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // A virtual method handle whose receiver parameter is typed as Object, for invokeExact
+    private static MethodHandle method(Class<?> type, String name, Class<?> returnType, Class<?>... parameterTypes){
+        try{
+            MethodHandle handle = lookup(type).findVirtual(type, name, MethodType.methodType(returnType, parameterTypes));
+            return handle.asType(handle.type().changeParameterType(0, Object.class));
+        }
+        catch(ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(Class<?> type, String name, Class<?> returnType, Class<?>... parameterTypes){
+        try{
+            return lookup(type).findStatic(type, name, MethodType.methodType(returnType, parameterTypes));
+        }
+        catch(ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static VarHandle field(Class<?> type, String name, Class<?> fieldType){
+        try{
+            return lookup(type).findVarHandle(type, name, fieldType);
+        }
+        catch(ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t){
+        if(t instanceof RuntimeException)return (RuntimeException)t;
+        if(t instanceof Error)throw (Error)t;
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+*   Class:   StageBenchmark
+*
+*   USAGE:  Time per call of each GaussianFit2 stage, and of a whole request from JSON text to JSON reply.
+*
+*           Each stage is measured on a GaussianFit2 that has already run the stages before it, so a
+*           benchmark repeats exactly one stage. Every stage recomputes its results from the marks, so
+*           repeating it on the same object does the same work each time.
+*
+*           The probability plot and the text report are measured separately (Reported) with
+*           smaller default sizes, as outputText() writes a file on every call. Larger sizes can
+*           still be requested with -p n=...
+*
+***************************************************************************************/
+
+package gauss.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageBenchmark{
+
+    // A fit that has run statistics(1), histogram() and performRegression()
+    @State(Scope.Thread)
+    public static class Fitted{
+
+        @Param({"100", "1000", "10000", "100000", "1000000", "10000000"})
+        public int n;
+
+        @Param({"narrow", "wide"})
+        public String shape;
+
+        double[] marks;
+        String request;
+        Object fit;
+
+        @Setup(Level.Trial)
+        public void setUp(){
+            this.marks = Datasets.marks(this.shape, this.n);
+            this.request = Datasets.request(this.marks);
+            this.fit = Pipeline.newFit(this.marks);
+            Pipeline.statistics(this.fit);
+            Pipeline.histogram(this.fit);
+            Pipeline.performRegression(this.fit);
+        }
+    }
+
+    // A fit that has also run probabilityPlot(), as outputText() needs
+    @State(Scope.Thread)
+    public static class Reported{
+
+        @Param({"100", "1000", "10000", "100000"})
+        public int n;
+
+        @Param({"narrow", "wide"})
+        public String shape;
+
+        Object fit;
+        File output;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException{
+            this.fit = Pipeline.newFit(Datasets.marks(this.shape, this.n));
+            Pipeline.statistics(this.fit);
+            Pipeline.histogram(this.fit);
+            Pipeline.performRegression(this.fit);
+            Pipeline.probabilityPlot(this.fit);
+            this.output = File.createTempFile("gauss-bench", ".txt");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown(){
+            this.output.delete();
+        }
+    }
+
+    @Benchmark
+    public Object statistics(Fitted state){
+        Pipeline.statistics(state.fit);
+        return state.fit;
+    }
+
+    @Benchmark
+    public Object histogram(Fitted state){
+        Pipeline.histogram(state.fit);
+        return state.fit;
+    }
+
+    @Benchmark
+    public double performRegression(Fitted state){
+        Pipeline.performRegression(state.fit);
+        return Pipeline.meanFit(state.fit);
+    }
+
+    // statistics(1), histogram() and performRegression() on a new GaussianFit2, as fit(double[], ...) runs them
+    @Benchmark
+    public double pipeline(Fitted state){
+        Object fit = Pipeline.newFit(state.marks);
+        Pipeline.statistics(fit);
+        Pipeline.histogram(fit);
+        Pipeline.performRegression(fit);
+        return Pipeline.meanFit(fit);
+    }
+
+    // GaussianFit2.fit(request): parse the JSON text, fit, and format the JSON reply
+    @Benchmark
+    public String endToEnd(Fitted state){
+        return Pipeline.fit(state.request);
+    }
+
+    @Benchmark
+    public Object probabilityPlot(Reported state){
+        Pipeline.probabilityPlot(state.fit);
+        return state.fit;
+    }
+
+    @Benchmark
+    public Object outputText(Reported state){
+        Pipeline.outputText(state.fit, state.output.getPath());
+        return state.fit;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+*   Class:   ThroughputBenchmark
+*
+*   USAGE:  Fits per second through FitPool.fitAll, for virtual threads (threads = 0) and for
+*           pools of 1 to 8 platform threads. With independent datasets the throughput should scale
+*           nearly linearly up to the number of processors.
+*
+***************************************************************************************/
+
+package gauss.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThroughputBenchmark{
+
+    private static final int DATASETS = 64;          // datasets fitted per call of fitAll
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"1000", "10000"})
+    public int n;
+
+    @Param({"simplex", "lm"})
+    public String method;
+
+    private AutoCloseable pool;
+    private List<double[]> datasets;
+    private JSONObject options;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        this.pool = Pipeline.fitPool(this.threads);
+        double[] marks = Datasets.marks("narrow", this.n*DATASETS);
+        this.datasets = new ArrayList<>(DATASETS);
+        for(int i=0; i<DATASETS; i++){
+            double[] dataset = new double[this.n];
+            System.arraycopy(marks, i*this.n, dataset, 0, this.n);
+            this.datasets.add(dataset);
+        }
+        this.options = new JSONObject().put("method", this.method);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception{
+        this.pool.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATASETS)
+    public List<?> fitAll(){
+        return Pipeline.fitAll(this.pool, this.datasets, this.options);
+    }
+}